@@ -18,7 +18,10 @@ package com.github.dpsm.android.account;
 import android.accounts.AccountManager;
 import android.app.Activity;
 import android.content.Intent;
+import android.os.Bundle;
 
+import com.github.dpsm.android.diagnostics.AuthFlightRecorder;
+import com.github.dpsm.android.diagnostics.AuthTrace;
 import com.google.android.gms.common.AccountPicker;
 
 /**
@@ -52,10 +55,28 @@ public abstract class AccountSelectionHelper<T> {
         void onAccountSelectionCanceled();
     }
 
+    private static final String KEY_SELECTION_PENDING =
+            AccountSelectionHelper.class.getName() + ".SELECTION_PENDING_";
+
+    private static final String KEY_SELECTED_ACCOUNT_NAME =
+            AccountSelectionHelper.class.getName() + ".SELECTED_ACCOUNT_NAME_";
+
+    private static final String TRACE_SELECT_ACCOUNT = "AccountSelection#selectUserAccount";
+
+    private static final String TRACE_HANDLE_RESULT = "AccountSelection#handleActivityResult";
+
+    private static final String TRACE_SELECTION = "AccountSelection#selection";
+
     private final int mRequestCodePickAccount;
 
     private final T mAndroidComponent;
 
+    private boolean mSelectionPending;
+
+    private String mSelectedAccountName;
+
+    private int mSelectionTraceCookie;
+
     /**
      * Creates an instance of this class bound to the specified Android component. This class may
      * start Activity instances for account selection hence requires a base request code id.
@@ -87,11 +108,71 @@ public abstract class AccountSelectionHelper<T> {
      * @param accountTypes account types or null for all account types.
      */
     public void selectUserAccount(final String[] accountTypes) {
-        final Intent intent = createAccountSelectionIntent(accountTypes);
-        startActivityForResult(mAndroidComponent, intent, mRequestCodePickAccount);
+        AuthTrace.beginSection(TRACE_SELECT_ACCOUNT);
+        try {
+            final Intent intent = createAccountSelectionIntent(accountTypes);
+            mSelectionPending = true;
+            startActivityForResult(mAndroidComponent, intent, mRequestCodePickAccount);
+        } finally {
+            AuthTrace.endSection();
+        }
+        AuthTrace.endAsyncSection(TRACE_SELECTION, mSelectionTraceCookie);
+        mSelectionTraceCookie = AuthTrace.beginAsyncSection(TRACE_SELECTION);
+    }
+
+    /**
+     * @return true if the account selection Activity was started and no result was handled yet.
+     */
+    public boolean isSelectionPending() {
+        return mSelectionPending;
+    }
+
+    /**
+     * @return the name of the last account selected through this helper or null if none.
+     */
+    public String getSelectedAccountName() {
+        return mSelectedAccountName;
+    }
+
+    /**
+     * Saves the selection state into the specified Bundle so that it survives the process being
+     * killed, for instance while the account selection Activity is shown. The bound component
+     * must call this method from its onSaveInstanceState(..).
+     *
+     * @see android.app.Activity#onSaveInstanceState(android.os.Bundle)
+     * @see #restoreInstanceState(android.os.Bundle)
+     *
+     * @param outState the Bundle to save the state into.
+     */
+    public void saveInstanceState(final Bundle outState) {
+        if (outState == null) {
+            throw new IllegalArgumentException("Bundle can not be null.");
+        }
+        outState.putBoolean(KEY_SELECTION_PENDING + mRequestCodePickAccount, mSelectionPending);
+        outState.putString(KEY_SELECTED_ACCOUNT_NAME + mRequestCodePickAccount,
+                mSelectedAccountName);
+    }
+
+    /**
+     * Restores the selection state from the specified Bundle. The bound component must call this
+     * method from its onCreate(..) so that a previously selected account can be used right away
+     * instead of prompting the user again.
+     *
+     * @see #saveInstanceState(android.os.Bundle)
+     *
+     * @param savedInstanceState the Bundle previously passed to saveInstanceState(..) or null.
+     */
+    public void restoreInstanceState(final Bundle savedInstanceState) {
+        if (savedInstanceState != null) {
+            mSelectionPending = savedInstanceState.getBoolean(
+                    KEY_SELECTION_PENDING + mRequestCodePickAccount);
+            mSelectedAccountName = savedInstanceState.getString(
+                    KEY_SELECTED_ACCOUNT_NAME + mRequestCodePickAccount);
+        }
     }
 
     public Intent createAccountSelectionIntent(final String[] accountTypes) {
+        // Referenced from this method body only, so it is loaded once the picker is launched.
         return AccountPicker.newChooseAccountIntent(null, null, accountTypes, false,
                 null, null, null, null);
     }
@@ -134,15 +215,26 @@ public abstract class AccountSelectionHelper<T> {
             return false;
         }
 
-        // Receiving a result from the AccountPicker
-        if (resultCode == Activity.RESULT_OK) {
-            final String accountName = data.getStringExtra(AccountManager.KEY_ACCOUNT_NAME);
-            // With the account name acquired, go get the auth token
-            asListener(mAndroidComponent).onAccountSelected(accountName);
-        } else if (resultCode == Activity.RESULT_CANCELED) {
-            // The account picker dialog closed without selecting an account.
-            // Notify users that they must pick an account to proceed.
-            asListener(mAndroidComponent).onAccountSelectionCanceled();
+        AuthTrace.endAsyncSection(TRACE_SELECTION, mSelectionTraceCookie);
+        mSelectionTraceCookie = 0;
+        AuthFlightRecorder.getDefault().record(AuthFlightRecorder.Event.ACCOUNT_SELECTED,
+                resultCode, null);
+        AuthTrace.beginSection(TRACE_HANDLE_RESULT);
+        try {
+            // Receiving a result from the AccountPicker
+            mSelectionPending = false;
+            if (resultCode == Activity.RESULT_OK) {
+                final String accountName = data.getStringExtra(AccountManager.KEY_ACCOUNT_NAME);
+                mSelectedAccountName = accountName;
+                // With the account name acquired, go get the auth token
+                asListener(mAndroidComponent).onAccountSelected(accountName);
+            } else if (resultCode == Activity.RESULT_CANCELED) {
+                // The account picker dialog closed without selecting an account.
+                // Notify users that they must pick an account to proceed.
+                asListener(mAndroidComponent).onAccountSelectionCanceled();
+            }
+        } finally {
+            AuthTrace.endSection();
         }
         return true;
     }
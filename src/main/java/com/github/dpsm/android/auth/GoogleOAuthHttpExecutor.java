@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import com.google.android.gms.auth.GoogleAuthException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class executes HTTP requests authorized with the tokens of a GoogleOauthTokenObservable.
+ * Requests carry the last known token, or else a token acquired on the calling thread by a call
+ * shared with concurrent requests and other blocking callers. When the server answers 401
+ * Unauthorized the token is cleared from Google Play services and the request is retried exactly
+ * once with a new token. Concurrent requests rejected with the same token share a single new
+ * token call.
+ * <br/>
+ * Requests block the calling thread and must not run on the main thread.
+ */
+public class GoogleOAuthHttpExecutor {
+
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+
+    private static final String BEARER = "Bearer ";
+
+    /**
+     * An HTTP request, opened once per attempt since a HttpURLConnection can not be reused.
+     */
+    public abstract static class Request {
+
+        /**
+         * Opens and configures a new connection without connecting it.
+         *
+         * @return the unconnected connection.
+         */
+        protected abstract HttpURLConnection open() throws IOException;
+
+        /**
+         * Writes the request body, if any, once the Authorization header is set. Does nothing by
+         * default.
+         *
+         * @param connection the connection returned by open().
+         */
+        protected void writeBody(final HttpURLConnection connection) throws IOException {
+        }
+    }
+
+    private final GoogleOAuthTokenOnSubscribe mOnSubscribe;
+
+    private final Object mRefetchLock = new Object();
+
+    /**
+     * Creates an instance authorizing requests with the tokens of the specified Observable.
+     *
+     * @param tokens the Observable of the tokens to authorize requests with.
+     */
+    public GoogleOAuthHttpExecutor(final GoogleOauthTokenObservable tokens) {
+        if (tokens == null) {
+            throw new IllegalArgumentException("Token observable can not be null.");
+        }
+        mOnSubscribe = tokens.getOnSubscribe();
+    }
+
+    /**
+     * Executes the specified request, retrying it once with a new token if the server rejects
+     * the token.
+     *
+     * @param request the request to execute.
+     * @return the connection of the last attempt, with its response available. Callers must
+     * disconnect it once the response is consumed.
+     */
+    public HttpURLConnection execute(final Request request)
+            throws IOException, GoogleAuthException {
+        if (request == null) {
+            throw new IllegalArgumentException("Request can not be null.");
+        }
+
+        final String token = mOnSubscribe.getToken(0, TimeUnit.MILLISECONDS);
+        final HttpURLConnection connection = send(request, token);
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_UNAUTHORIZED) {
+            return connection;
+        }
+        connection.disconnect();
+        return send(request, refetch(token));
+    }
+
+    private String refetch(final String rejectedToken) throws IOException, GoogleAuthException {
+        synchronized (mRefetchLock) {
+            final String token = mOnSubscribe.getCachedToken();
+            if (token != null && !token.equals(rejectedToken)) {
+                // Another request already replaced the rejected token.
+                return token;
+            }
+            mOnSubscribe.invalidateToken(rejectedToken);
+            // Subject to the same rate limiter, priority, executor and deadline as first calls.
+            return mOnSubscribe.getToken(0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static HttpURLConnection send(final Request request, final String token)
+            throws IOException {
+        final HttpURLConnection connection = request.open();
+        connection.setRequestProperty(HEADER_AUTHORIZATION, BEARER + token);
+        request.writeBody(connection);
+        // Sends the request and reads the status line.
+        connection.getResponseCode();
+        return connection;
+    }
+}
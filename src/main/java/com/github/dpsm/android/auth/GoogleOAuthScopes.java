@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * This class parses OAuth 2.0 scope strings of the "oauth2:scope1 scope2" form accepted by
+ * GoogleAuthUtil into canonical sorted scope sets so that strings listing the same scopes in a
+ * different order or with duplicates map to the same token, and so that a token granted for a
+ * set of scopes can serve requests for any subset of it.
+ * <br/>
+ * Other scope strings, such as "audience:server:client_id:..", are left untouched and only match
+ * themselves.
+ */
+public final class GoogleOAuthScopes {
+
+    private static final String OAUTH2_PREFIX = "oauth2:";
+
+    private GoogleOAuthScopes() {
+    }
+
+    /**
+     * Get the canonical form of the specified scope string: scopes sorted, without duplicates and
+     * separated by a single space.
+     *
+     * @param scope the scope string.
+     * @return the canonical scope string or the specified one if it is not an OAuth 2.0 scope
+     * string.
+     */
+    public static String normalize(final String scope) {
+        final String[] scopes = parse(scope);
+        if (scopes == null) {
+            return scope;
+        }
+
+        final StringBuilder builder = new StringBuilder(scope.length()).append(OAUTH2_PREFIX);
+        for (int i = 0; i < scopes.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(scopes[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the canonical scope string listing every scope of the specified scope strings, for
+     * instance to ask the user for all of them at once.
+     *
+     * @param scopes the scope strings to combine.
+     * @return the canonical combined scope string or null if none is specified or one of the
+     * specified strings is not an OAuth 2.0 scope string.
+     */
+    public static String union(final Collection<String> scopes) {
+        if (scopes.isEmpty()) {
+            return null;
+        }
+
+        final StringBuilder builder = new StringBuilder(OAUTH2_PREFIX);
+        for (final String scope : scopes) {
+            if (parse(scope) == null) {
+                return null;
+            }
+            builder.append(' ').append(scope.substring(OAUTH2_PREFIX.length()));
+        }
+        return normalize(builder.toString());
+    }
+
+    /**
+     * Parses the specified scope string into its sorted scopes.
+     *
+     * @param scope the scope string.
+     * @return the sorted scopes without duplicates or null if the specified string is not an
+     * OAuth 2.0 scope string or lists no scope.
+     */
+    public static String[] parse(final String scope) {
+        if (scope == null || !scope.startsWith(OAUTH2_PREFIX)) {
+            return null;
+        }
+
+        final TreeSet<String> scopes = new TreeSet<String>();
+        for (final String item : scope.substring(OAUTH2_PREFIX.length()).split("\\s+")) {
+            if (item.length() > 0) {
+                scopes.add(item);
+            }
+        }
+        return scopes.isEmpty() ? null : scopes.toArray(new String[scopes.size()]);
+    }
+
+    /**
+     * Tells whether a token granted for the specified scopes also grants the requested ones.
+     * Both arrays must be sorted, as returned by parse(..).
+     *
+     * @see #parse(String)
+     *
+     * @param granted the sorted scopes of the token.
+     * @param requested the sorted requested scopes.
+     * @return true if every requested scope is granted, false otherwise.
+     */
+    public static boolean covers(final String[] granted, final String[] requested) {
+        if (granted.length < requested.length) {
+            return false;
+        }
+
+        int g = 0;
+        for (final String scope : requested) {
+            while (g < granted.length && granted[g].compareTo(scope) < 0) {
+                g++;
+            }
+            if (g == granted.length || !granted[g].equals(scope)) {
+                return false;
+            }
+            g++;
+        }
+        return true;
+    }
+}
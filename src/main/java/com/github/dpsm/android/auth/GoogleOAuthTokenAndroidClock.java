@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class installs SystemClock.elapsedRealtime() as the source of GoogleOAuthTokenClock once
+ * the library runs on Android, which happens when the first GoogleOAuthTokenOnSubscribe is
+ * created.
+ */
+final class GoogleOAuthTokenAndroidClock implements GoogleOAuthTokenClock.Source {
+
+    private static final AtomicBoolean INSTALLED = new AtomicBoolean();
+
+    private GoogleOAuthTokenAndroidClock() {
+    }
+
+    /**
+     * Installs this clock unless it already is.
+     */
+    static void install() {
+        if (INSTALLED.compareAndSet(false, true)) {
+            GoogleOAuthTokenClock.install(new GoogleOAuthTokenAndroidClock());
+        }
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class keeps the last access token acquired for each account and scope pair so that
+ * callers already holding a valid token can be served without reaching Google Play Services.
+ * <br/>
+ * Each account and scope pair maps to a single Entry instance for the lifetime of the cache,
+ * allowing the token path to resolve its Entry once and read the token afterwards without any
+ * lookups or allocations.
+ * <br/>
+ * OAuth 2.0 scope strings are normalized so that the same scopes listed in a different order
+ * share an Entry. Tokens granted for a set of scopes can also serve requests for a subset of it.
+ * <br/>
+ * This class does not depend on Android and runs on a plain JVM.
+ * <br/>
+ * A cache only serves tokens younger than their scope's lifetime estimated by its
+ * GoogleOAuthTokenLifetimeEstimator and feeds the estimator with the ages at which tokens are
+ * rejected or fetched again. Only a cache explicitly created without an estimator serves tokens
+ * regardless of their age.
+ *
+ * @see com.github.dpsm.android.auth.GoogleOAuthTokenLifetimeEstimator
+ * @see com.github.dpsm.android.auth.GoogleOAuthScopes
+ * @see com.github.dpsm.android.auth.GoogleOAuthTokenOnSubscribe
+ */
+public class GoogleOAuthTokenCache {
+
+    private static final GoogleOAuthTokenCache DEFAULT =
+            new GoogleOAuthTokenCache(GoogleOAuthTokenLifetimeEstimator.getDefault());
+
+    /**
+     * This class holds the token state for a single account and scope pair.
+     */
+    public static final class Entry {
+
+        private final String mAccountName;
+
+        private final String mScope;
+
+        private final String[] mScopes;
+
+        private final GoogleOAuthTokenLifetimeEstimator mLifetimes;
+
+        private final AtomicReference<TokenState> mState =
+                new AtomicReference<TokenState>(TokenState.NONE);
+
+        private final AtomicBoolean mRevalidating = new AtomicBoolean();
+
+        private Entry(final String accountName, final String scope,
+                      final GoogleOAuthTokenLifetimeEstimator lifetimes) {
+            mAccountName = accountName;
+            mScope = scope;
+            mScopes = GoogleOAuthScopes.parse(scope);
+            mLifetimes = lifetimes;
+        }
+
+        /**
+         * @return the account name this entry belongs to.
+         */
+        public String getAccountName() {
+            return mAccountName;
+        }
+
+        /**
+         * @return the canonical OAuth token scope this entry belongs to.
+         */
+        public String getScope() {
+            return mScope;
+        }
+
+        /**
+         * @return the last known token or null if none is known.
+         */
+        public String getToken() {
+            return mState.get().mToken;
+        }
+
+        /**
+         * @return the time the last known token was acquired at, in milliseconds since boot.
+         *
+         * @see android.os.SystemClock#elapsedRealtime()
+         */
+        public long getAcquiredAt() {
+            return mState.get().mAcquiredAt;
+        }
+
+        /**
+         * Records the specified token as the last known token for this entry, acquired now.
+         *
+         * @param token the acquired token.
+         */
+        public void setToken(final String token) {
+            setToken(token, GoogleOAuthTokenClock.elapsedRealtime());
+        }
+
+        /**
+         * Records the specified token as the last known token for this entry. Recording the
+         * last known token again keeps the time it was first acquired at.
+         *
+         * @param token the acquired token.
+         * @param acquiredAt the time the token was acquired at, in milliseconds since boot.
+         */
+        public void setToken(final String token, final long acquiredAt) {
+            TokenState previous;
+            boolean same;
+            do {
+                previous = mState.get();
+                same = token != null && token.equals(previous.mToken);
+                if (same && acquiredAt >= previous.mAcquiredAt) {
+                    // Nothing to publish, the first acquisition time is kept.
+                    break;
+                }
+            } while (!mState.compareAndSet(previous, new TokenState(token, acquiredAt)));
+
+            if (mLifetimes != null && token != null && previous.mToken != null) {
+                mLifetimes.onTokenRefetched(mScope, acquiredAt - previous.mAcquiredAt, !same);
+            }
+        }
+
+        /**
+         * Get the last known token if it was acquired within the specified window.
+         *
+         * @param windowMillis the maximum age of the token in milliseconds.
+         * @return the token or null if none is known or it is older than the window.
+         */
+        public String getToken(final long windowMillis) {
+            final TokenState state = mState.get();
+            final long ageMillis = GoogleOAuthTokenClock.elapsedRealtime() - state.mAcquiredAt;
+            if (state.mToken != null && ageMillis <= windowMillis) {
+                return state.mToken;
+            }
+            return null;
+        }
+
+        /**
+         * @return the last known token if it is younger than its estimated lifetime, or null.
+         */
+        private String getFreshToken(final long now) {
+            final TokenState state = mState.get();
+            if (state.mToken == null || mLifetimes == null
+                    || now - state.mAcquiredAt < mLifetimes.getFreshMillis(mScope)) {
+                return state.mToken;
+            }
+            return null;
+        }
+
+        /**
+         * Marks this entry as being revalidated. Only one revalidation may run at a time.
+         *
+         * @return true if the caller must revalidate this entry, false if a revalidation is
+         * already running.
+         */
+        public boolean beginRevalidation() {
+            return mRevalidating.compareAndSet(false, true);
+        }
+
+        /**
+         * Marks the running revalidation of this entry as finished.
+         *
+         * @see #beginRevalidation()
+         */
+        public void endRevalidation() {
+            mRevalidating.set(false);
+        }
+
+        /**
+         * Forgets the specified token if it is the last known token for this entry.
+         *
+         * @param token the token to forget.
+         * @return true if the token was forgotten, false otherwise.
+         */
+        public boolean invalidate(final String token) {
+            return forget(token) != null;
+        }
+
+        /**
+         * Forgets the specified token if it is the last known token for this entry.
+         *
+         * @return the forgotten state or null if the token was not the last known one.
+         */
+        private TokenState forget(final String token) {
+            TokenState state;
+            do {
+                state = mState.get();
+                if (token == null || !token.equals(state.mToken)) {
+                    return null;
+                }
+            } while (!forget(state));
+            return state;
+        }
+
+        /**
+         * Forgets the token of the specified state unless another state was published since.
+         *
+         * @return true if the token was forgotten, false otherwise.
+         */
+        private boolean forget(final TokenState expected) {
+            return mState.compareAndSet(expected, new TokenState(null, expected.mAcquiredAt));
+        }
+    }
+
+    /**
+     * A token and the time it was acquired at, published together.
+     */
+    private static final class TokenState {
+
+        private static final TokenState NONE = new TokenState(null, 0);
+
+        private final String mToken;
+
+        private final long mAcquiredAt;
+
+        private TokenState(final String token, final long acquiredAt) {
+            mToken = token;
+            mAcquiredAt = acquiredAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> mEntries =
+            new ConcurrentHashMap<String, Entry>();
+
+    private final ConcurrentHashMap<String, List<Entry>> mAccountEntries =
+            new ConcurrentHashMap<String, List<Entry>>();
+
+    private final GoogleOAuthTokenLifetimeEstimator mLifetimes;
+
+    /**
+     * Creates a cache serving tokens while they are younger than the lifetime estimated by an
+     * estimator of its own, keeping its estimates in memory.
+     */
+    public GoogleOAuthTokenCache() {
+        this(new GoogleOAuthTokenLifetimeEstimator(
+                GoogleOAuthTokenLifetimeEstimator.DEFAULT_LIFETIME_MILLIS));
+    }
+
+    /**
+     * Creates a cache serving tokens while they are younger than the lifetime estimated by the
+     * specified estimator.
+     *
+     * @param lifetimes the estimator of token lifetimes or null to serve tokens of any age.
+     */
+    public GoogleOAuthTokenCache(final GoogleOAuthTokenLifetimeEstimator lifetimes) {
+        mLifetimes = lifetimes;
+    }
+
+    /**
+     * @return the estimator of token lifetimes of this cache or null if it has none.
+     */
+    public GoogleOAuthTokenLifetimeEstimator getLifetimeEstimator() {
+        return mLifetimes;
+    }
+
+    /**
+     * @return the process wide cache instance used when none is specified.
+     */
+    public static GoogleOAuthTokenCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the Entry bound to the specified account and scope, creating it if needed. The same
+     * instance is always returned for the same account and scope pair.
+     *
+     * @param accountName the target Google account name.
+     * @param scope the OAuth token scope.
+     * @return the Entry instance.
+     */
+    public Entry getEntry(final String accountName, final String scope) {
+        if (isEmpty(accountName)) {
+            throw new IllegalArgumentException("Account name can not be null or empty.");
+        }
+
+        if (isEmpty(scope)) {
+            throw new IllegalArgumentException("Token scope can not be null or empty.");
+        }
+
+        Entry entry = mEntries.get(toKey(accountName, scope));
+        if (entry == null) {
+            // Only the first lookup of a scope string pays for normalizing it.
+            final String canonicalScope = GoogleOAuthScopes.normalize(scope);
+            final String key = toKey(accountName, canonicalScope);
+            entry = mEntries.get(key);
+            if (entry == null) {
+                final Entry created = new Entry(accountName, canonicalScope, mLifetimes);
+                entry = mEntries.putIfAbsent(key, created);
+                if (entry == null) {
+                    entry = created;
+                    getAccountEntries(accountName).add(created);
+                }
+            }
+            // Let later lookups of this exact string resolve in one step.
+            mEntries.putIfAbsent(toKey(accountName, scope), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Get the last known token granting the scopes of the specified Entry: its own token or else
+     * the token of the same account's Entry granting the fewest scopes that include them. Tokens
+     * older than their estimated lifetime are ignored, if this cache has an estimator.
+     *
+     * @param entry the Entry of the requested account and scopes.
+     * @return the token or null if none is known.
+     */
+    public String getTokenCovering(final Entry entry) {
+        final long now = mLifetimes != null ? GoogleOAuthTokenClock.elapsedRealtime() : 0;
+        final String token = entry.getFreshToken(now);
+        if (token != null || entry.mScopes == null) {
+            return token;
+        }
+
+        final List<Entry> entries = mAccountEntries.get(entry.getAccountName());
+        if (entries == null) {
+            return null;
+        }
+
+        String covering = null;
+        int coveringScopeCount = Integer.MAX_VALUE;
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry other = entries.get(i);
+            final String otherToken = other.getFreshToken(now);
+            if (otherToken != null && other.mScopes != null
+                    && other.mScopes.length < coveringScopeCount
+                    && GoogleOAuthScopes.covers(other.mScopes, entry.mScopes)) {
+                covering = otherToken;
+                coveringScopeCount = other.mScopes.length;
+            }
+        }
+        return covering;
+    }
+
+    /**
+     * Get the last known token granting the specified account's scopes.
+     *
+     * @see #getTokenCovering(GoogleOAuthTokenCache.Entry)
+     *
+     * @param accountName the target Google account name.
+     * @param scope the OAuth token scope.
+     * @return the token or null if none is known.
+     */
+    public String getTokenCovering(final String accountName, final String scope) {
+        return getTokenCovering(getEntry(accountName, scope));
+    }
+
+    /**
+     * Get the last known token for the specified account and scope.
+     *
+     * @param accountName the target Google account name.
+     * @param scope the OAuth token scope.
+     * @return the token or null if none is known.
+     */
+    public String getToken(final String accountName, final String scope) {
+        Entry entry = mEntries.get(toKey(accountName, scope));
+        if (entry == null) {
+            entry = mEntries.get(toKey(accountName, GoogleOAuthScopes.normalize(scope)));
+        }
+        return entry != null ? entry.getToken() : null;
+    }
+
+    /**
+     * Forgets the specified token from every entry holding it. Callers must invoke this method
+     * whenever a token is rejected by the server.
+     *
+     * @param token the token to forget.
+     * @return true if any entry held the token, false otherwise.
+     */
+    public boolean invalidate(final String token) {
+        final long now = GoogleOAuthTokenClock.elapsedRealtime();
+        boolean invalidated = false;
+        for (Entry entry : mEntries.values()) {
+            final TokenState forgotten = entry.forget(token);
+            if (forgotten != null) {
+                invalidated = true;
+                if (mLifetimes != null) {
+                    mLifetimes.onTokenRejected(entry.getScope(), now - forgotten.mAcquiredAt);
+                }
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * Forgets all known tokens.
+     */
+    public void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.setToken(null);
+        }
+    }
+
+    /**
+     * Forgets the tokens acquired at least the specified time ago, keeping the entries so that
+     * their identity is preserved.
+     *
+     * @param maxAgeMillis the age from which tokens are forgotten, 0 to forget all tokens.
+     * @return the number of tokens forgotten.
+     */
+    public int trimOlderThan(final long maxAgeMillis) {
+        final long now = GoogleOAuthTokenClock.elapsedRealtime();
+        int released = 0;
+        for (final List<Entry> entries : mAccountEntries.values()) {
+            for (final Entry entry : entries) {
+                // Compare and forget so that a token acquired meanwhile is kept.
+                final TokenState state = entry.mState.get();
+                if (state.mToken != null && now - state.mAcquiredAt >= maxAgeMillis
+                        && entry.forget(state)) {
+                    released++;
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Forgets every token but the most recently acquired one of each account, the one most
+     * likely to be needed again.
+     *
+     * @return the number of tokens forgotten.
+     */
+    public int trimToNewestPerAccount() {
+        int released = 0;
+        for (final List<Entry> entries : mAccountEntries.values()) {
+            Entry newest = null;
+            long newestAcquiredAt = 0;
+            for (final Entry entry : entries) {
+                final TokenState state = entry.mState.get();
+                if (state.mToken != null
+                        && (newest == null || state.mAcquiredAt > newestAcquiredAt)) {
+                    newest = entry;
+                    newestAcquiredAt = state.mAcquiredAt;
+                }
+            }
+
+            for (final Entry entry : entries) {
+                final TokenState state = entry.mState.get();
+                // Compare and forget so that a token acquired meanwhile is kept.
+                if (entry != newest && state.mToken != null && entry.forget(state)) {
+                    released++;
+                }
+            }
+        }
+        return released;
+    }
+
+    private List<Entry> getAccountEntries(final String accountName) {
+        List<Entry> entries = mAccountEntries.get(accountName);
+        if (entries == null) {
+            final List<Entry> created = new CopyOnWriteArrayList<Entry>();
+            entries = mAccountEntries.putIfAbsent(accountName, created);
+            if (entries == null) {
+                entries = created;
+            }
+        }
+        return entries;
+    }
+
+    private static boolean isEmpty(final String string) {
+        return string == null || string.length() == 0;
+    }
+
+    private static String toKey(final String accountName, final String scope) {
+        return accountName + '\n' + scope;
+    }
+}
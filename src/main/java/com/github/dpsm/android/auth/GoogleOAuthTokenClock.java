@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class reads the time token ages are measured with. It runs on System.nanoTime() until the
+ * Android layer installs SystemClock.elapsedRealtime(), which keeps counting in deep sleep, so
+ * that the classes using it also run on a plain JVM.
+ *
+ * @see GoogleOAuthTokenAndroidClock
+ */
+final class GoogleOAuthTokenClock {
+
+    /**
+     * A source of milliseconds elapsed since an arbitrary origin, never going backwards.
+     */
+    interface Source {
+        long elapsedRealtime();
+    }
+
+    private static final Source SYSTEM = new Source() {
+        @Override
+        public long elapsedRealtime() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+    };
+
+    private static volatile Source sSource = SYSTEM;
+
+    private GoogleOAuthTokenClock() {
+    }
+
+    /**
+     * @return the milliseconds elapsed since an arbitrary origin.
+     */
+    static long elapsedRealtime() {
+        return sSource.elapsedRealtime();
+    }
+
+    /**
+     * Replaces the source of this clock. Times recorded before are measured from another origin,
+     * the source should therefore be installed before the first token is recorded.
+     *
+     * @param source the new source.
+     */
+    static void install(final Source source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Clock source can not be null.");
+        }
+        sSource = source;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+/**
+ * This class adapts the number of token calls allowed to run at once using an additive increase
+ * multiplicative decrease (AIMD) algorithm. Each call completing within the latency tolerance
+ * of the fastest call seen raises the limit by 1/limit, roughly one call per round of calls,
+ * while a call failing with an IOException or completing too slowly cuts the limit by a quarter.
+ * The limit is cut at most once per latency window: calls completing within the latency of the
+ * call that caused a cut were admitted before it and do not reflect it.
+ * <br/>
+ * The fastest call seen is a baseline that slowly drifts up so that the limiter adapts when the
+ * device or network conditions change.
+ *
+ * @see GoogleOAuthTokenExecutor#setConcurrencyLimiter(GoogleOAuthTokenConcurrencyLimiter)
+ */
+public class GoogleOAuthTokenConcurrencyLimiter {
+
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private static final double BASELINE_DRIFT = 1.01;
+
+    private final int mMinLimit;
+
+    private final int mMaxLimit;
+
+    private final double mLatencyTolerance;
+
+    private double mLimit;
+
+    private long mBaselineNanos = Long.MAX_VALUE;
+
+    private long mSampleCount;
+
+    private long mDropCount;
+
+    private boolean mDecreased;
+
+    private long mDecreaseWindowEnd;
+
+    /**
+     * Creates a limiter starting at the specified limit.
+     *
+     * @param initialLimit the limit to start with.
+     * @param minLimit the lowest limit allowed.
+     * @param maxLimit the highest limit allowed.
+     * @param latencyTolerance how many times slower than the baseline a call may complete
+     *                         before being considered a sign of overload.
+     */
+    public GoogleOAuthTokenConcurrencyLimiter(final int initialLimit, final int minLimit,
+                                              final int maxLimit,
+                                              final double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= max.");
+        }
+
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit must be within min and max.");
+        }
+
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException("Latency tolerance must be greater than 1.");
+        }
+
+        mMinLimit = minLimit;
+        mMaxLimit = maxLimit;
+        mLatencyTolerance = latencyTolerance;
+        mLimit = initialLimit;
+    }
+
+    /**
+     * Records the outcome of a token call and adapts the limit. Calls abandoned or interrupted
+     * before returning must not be recorded, their latency says nothing about the load.
+     *
+     * @param latencyNanos the time the call took.
+     * @param dropped true if the call failed with an IOException, false otherwise.
+     * @return the limit after adapting.
+     */
+    public synchronized int onSample(final long latencyNanos, final boolean dropped) {
+        mSampleCount++;
+        if (mBaselineNanos != Long.MAX_VALUE) {
+            mBaselineNanos = (long) (mBaselineNanos * BASELINE_DRIFT);
+        }
+
+        if (!dropped && latencyNanos < mBaselineNanos) {
+            mBaselineNanos = latencyNanos;
+        }
+
+        if (dropped || latencyNanos > mBaselineNanos * mLatencyTolerance) {
+            mDropCount++;
+            final long now = now();
+            if (!mDecreased || now - mDecreaseWindowEnd >= 0) {
+                mLimit = Math.max(mMinLimit, mLimit * DECREASE_FACTOR);
+                mDecreased = true;
+                mDecreaseWindowEnd = now + latencyNanos;
+            }
+        } else {
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+        }
+        return (int) mLimit;
+    }
+
+    /**
+     * @return the number of token calls currently allowed to run at once.
+     */
+    public synchronized int getLimit() {
+        return (int) mLimit;
+    }
+
+    /**
+     * @return the number of calls recorded.
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return the number of calls recorded as failed or too slow.
+     */
+    public synchronized long getDropCount() {
+        return mDropCount;
+    }
+
+    long now() {
+        return System.nanoTime();
+    }
+}
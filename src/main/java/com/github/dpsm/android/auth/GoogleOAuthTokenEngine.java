@@ -0,0 +1,880 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import com.github.dpsm.android.diagnostics.AuthFlightRecorder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * This class implements the token acquisition state machine behind GoogleOAuthTokenOnSubscribe:
+ * serving known tokens, sharing token calls between concurrent callers, rate limiting,
+ * prioritizing and timing out token calls on a GoogleOAuthTokenExecutor and revalidating stale
+ * tokens. Subclasses make the actual token call in {@link #getToken()}.
+ * <br/>
+ * It does not depend on Android, so that it can be load tested and benchmarked on a plain JVM
+ * against a fake token source.
+ *
+ * @see GoogleOAuthTokenOnSubscribe
+ */
+public abstract class GoogleOAuthTokenEngine implements Observable.OnSubscribe<String>,
+        GoogleOAuthTokenSource {
+
+    private static final ConcurrentMap<GoogleOAuthTokenCache.Entry, TokenCall> IN_FLIGHT =
+            new ConcurrentHashMap<GoogleOAuthTokenCache.Entry, TokenCall>();
+
+    private final String mAccountName;
+
+    private final String mScope;
+
+    private final GoogleOAuthTokenCache mCache;
+
+    private final GoogleOAuthTokenCache.Entry mCacheEntry;
+
+    private volatile long mTimeoutMillis;
+
+    private volatile GoogleOAuthTokenExecutor mExecutor;
+
+    private volatile Scheduler mScheduler = Schedulers.computation();
+
+    private volatile GoogleOAuthTokenRateLimiter mRateLimiter;
+
+    private volatile GoogleOAuthTokenPriority mPriority = GoogleOAuthTokenPriority.INTERACTIVE;
+
+    private volatile long mStaleGraceMillis;
+
+    /**
+     * Creates an instance of a GoogleOAuthTokenEngine emitting access tokens for the specified
+     * account and scope and recording them in the specified cache.
+     *
+     * @param accountName the target Google account name.
+     * @param scope the OAuth token scope.
+     * @param cache the cache where acquired tokens are recorded.
+     */
+    protected GoogleOAuthTokenEngine(final String accountName, final String scope,
+                                     final GoogleOAuthTokenCache cache) {
+        if (isEmpty(accountName)) {
+            throw new IllegalArgumentException("Account name can not be null or empty.");
+        }
+
+        if (isEmpty(scope)) {
+            throw new IllegalArgumentException("Token scope can not be null or empty.");
+        }
+
+        if (cache == null) {
+            throw new IllegalArgumentException("Token cache can not be null.");
+        }
+        mAccountName = accountName;
+        mScope = scope;
+        mCache = cache;
+        mCacheEntry = cache.getEntry(accountName, scope);
+    }
+
+    private static boolean isEmpty(final String value) {
+        return value == null || value.length() == 0;
+    }
+
+    /**
+     * Sets a deadline for each subscription. When set, token calls run on this instance's
+     * executor, or the default GoogleOAuthTokenExecutor if none was set, and subscribers are
+     * failed with a GoogleOAuthTokenTimeoutException once the deadline expires. Unsubscribing or
+     * timing out cancels the call, interrupting its thread.
+     *
+     * @param timeout the deadline relative to subscription, 0 for no deadline.
+     * @param unit the unit of the timeout argument.
+     */
+    public void setTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout can not be negative.");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit can not be null.");
+        }
+        mTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the executor running token calls. By default token calls block the subscribing
+     * thread. When an executor is set the subscribing thread returns immediately and calls still
+     * queued when their subscriber unsubscribes are removed from the executor without running.
+     *
+     * @see #setTimeout(long, java.util.concurrent.TimeUnit)
+     *
+     * @param executor the executor to run token calls.
+     */
+    public void setExecutor(final GoogleOAuthTokenExecutor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor can not be null.");
+        }
+        mExecutor = executor;
+    }
+
+    /**
+     * Sets the scheduler used to time deadlines and rate limiter delays.
+     *
+     * @see #setTimeout(long, java.util.concurrent.TimeUnit)
+     * @see #setRateLimiter(GoogleOAuthTokenRateLimiter)
+     *
+     * @param scheduler the scheduler to time deadlines and delays.
+     */
+    public void setScheduler(final Scheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Scheduler can not be null.");
+        }
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Sets the rate limiter applied to token calls, usually shared by all instances. Delayed
+     * calls are scheduled on this instance's scheduler and then run on its executor, or the
+     * default GoogleOAuthTokenExecutor if none was set. Rejected calls fail the subscriber with
+     * a GoogleOAuthTokenRateLimitException.
+     *
+     * @param rateLimiter the rate limiter or null to disable rate limiting.
+     */
+    public void setRateLimiter(final GoogleOAuthTokenRateLimiter rateLimiter) {
+        mRateLimiter = rateLimiter;
+    }
+
+    /**
+     * Enables the stale-while-revalidate serving mode. Subscribers are served the last known
+     * token right away while the cache considers it fresh. Once stale, it is still served right
+     * away when acquired within the specified grace window, while a single background call on
+     * this instance's executor refreshes the token for later subscribers. Tokens older than the
+     * window, or no known token, are fetched as usual.
+     *
+     * @param grace the maximum age of tokens served without waiting, 0 to disable.
+     * @param unit the unit of the grace argument.
+     */
+    public void setStaleWhileRevalidate(final long grace, final TimeUnit unit) {
+        if (grace < 0) {
+            throw new IllegalArgumentException("Grace window can not be negative.");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit can not be null.");
+        }
+        mStaleGraceMillis = unit.toMillis(grace);
+    }
+
+    /**
+     * Sets the priority of token calls on the executor. Background calls always run on this
+     * instance's executor, or the default GoogleOAuthTokenExecutor if none was set, so that they
+     * queue behind interactive ones instead of blocking the subscribing thread.
+     *
+     * @param priority the priority of token calls.
+     */
+    public void setPriority(final GoogleOAuthTokenPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Priority can not be null.");
+        }
+        mPriority = priority;
+    }
+
+    /**
+     * Applies the timeout, executor, scheduler, rate limiter, stale-while-revalidate grace
+     * window and priority of the specified instance to this one.
+     *
+     * @param source the instance to copy the configuration of.
+     */
+    void copyConfiguration(final GoogleOAuthTokenEngine source) {
+        mTimeoutMillis = source.mTimeoutMillis;
+        mExecutor = source.mExecutor;
+        mScheduler = source.mScheduler;
+        mRateLimiter = source.mRateLimiter;
+        mStaleGraceMillis = source.mStaleGraceMillis;
+        mPriority = source.mPriority;
+    }
+
+    @Override
+    public void call(final Subscriber<? super String> subscriber) {
+        if (subscriber.isUnsubscribed()) {
+            // Nobody is listening anymore, skip the IPC altogether.
+            return;
+        }
+
+        AuthFlightRecorder.getDefault().record(AuthFlightRecorder.Event.SUBSCRIBE, 0, mScope);
+        request(subscriber);
+    }
+
+    private void request(final Subscriber<? super String> subscriber) {
+        if (mStaleGraceMillis > 0) {
+            final String knownToken = getKnownToken();
+            if (knownToken != null) {
+                subscriber.onNext(knownToken);
+                subscriber.onCompleted();
+                return;
+            }
+        }
+
+        final GoogleOAuthTokenRateLimiter rateLimiter = mRateLimiter;
+        if (rateLimiter != null) {
+            final long delayNanos = rateLimiter.reserve(mAccountName);
+            if (delayNanos == GoogleOAuthTokenRateLimiter.REJECTED) {
+                onError(subscriber, new GoogleOAuthTokenRateLimitException(
+                        "Too many token calls for " + mAccountName + "."));
+                return;
+            } else if (delayNanos > 0) {
+                // Wait without holding a thread, then run the call off the timer thread.
+                final Scheduler.Worker worker = mScheduler.createWorker();
+                subscriber.add(worker);
+                worker.schedule(new Action0() {
+                    @Override
+                    public void call() {
+                        if (!subscriber.isUnsubscribed()) {
+                            fetch(subscriber, true);
+                        }
+                    }
+                }, delayNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+
+        fetch(subscriber, mPriority == GoogleOAuthTokenPriority.BACKGROUND);
+    }
+
+    private void fetch(final Subscriber<? super String> subscriber, final boolean offload) {
+        final long timeoutMillis = mTimeoutMillis;
+        final GoogleOAuthTokenExecutor executor = mExecutor;
+        final boolean useExecutor = timeoutMillis > 0 || executor != null || offload
+                || offloadFromMainThread();
+
+        if (useExecutor) {
+            new ExecutorFetch(subscriber,
+                    executor != null ? executor : GoogleOAuthTokenExecutor.getDefault(),
+                    timeoutMillis, mPriority).start(mScheduler);
+            return;
+        }
+
+        try {
+            final String accessToken = getToken();
+            // Keep the token for the next caller even if this subscriber is gone.
+            mCacheEntry.setToken(accessToken);
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onNext(accessToken);
+                subscriber.onCompleted();
+            }
+        } catch (IOException e) {
+            // network or server error, the call is expected to succeed if you try again later.
+            // Don't attempt to call again immediately - the request is likely to
+            // fail, you'll hit quotas or back-off.
+            onError(subscriber, e);
+        } catch (Exception e) {
+            // Either user recoverable or a GoogleAuthException not expected to ever succeed,
+            // the controller tells them apart. Catching Google Play services types here would
+            // load them as soon as this class is.
+            onError(subscriber, e);
+        }
+    }
+
+    /**
+     * Tells whether a token call about to block the calling thread runs on the executor instead.
+     * Never by default.
+     *
+     * @return true to move the call to the executor.
+     */
+    protected boolean offloadFromMainThread() {
+        return false;
+    }
+
+    private static void onError(final Subscriber<? super String> subscriber,
+                                final Throwable throwable) {
+        recordError(throwable);
+        if (!subscriber.isUnsubscribed()) {
+            subscriber.onError(throwable);
+        }
+    }
+
+    private static void recordError(final Throwable throwable) {
+        AuthFlightRecorder.getDefault().record(AuthFlightRecorder.Event.ERROR, 0,
+                throwable.getClass());
+    }
+
+    private void revalidate() {
+        if (!mCacheEntry.beginRevalidation()) {
+            return;
+        }
+
+        final GoogleOAuthTokenRateLimiter rateLimiter = mRateLimiter;
+        if (rateLimiter != null && !rateLimiter.tryAcquire(mAccountName)) {
+            // Revalidation is optional, do not spend permits other calls are waiting for.
+            mCacheEntry.endRevalidation();
+            return;
+        }
+
+        final GoogleOAuthTokenExecutor executor = mExecutor;
+        try {
+            (executor != null ? executor : GoogleOAuthTokenExecutor.getDefault())
+                    .execute(new Revalidation(rateLimiter));
+        } catch (RejectedExecutionException e) {
+            // Shut down, keep serving the last known token.
+            if (rateLimiter != null) {
+                rateLimiter.release(mAccountName);
+            }
+            mCacheEntry.endRevalidation();
+        }
+    }
+
+    /**
+     * Refreshes the cached token in the background.
+     */
+    private final class Revalidation implements Runnable, GoogleOAuthTokenExecutor.Prioritized,
+            GoogleOAuthTokenExecutor.Rejectable {
+
+        // The rate limiter the permit of this call was taken from, if any.
+        private final GoogleOAuthTokenRateLimiter mPermitLimiter;
+
+        private Revalidation(final GoogleOAuthTokenRateLimiter rateLimiter) {
+            mPermitLimiter = rateLimiter;
+        }
+
+        @Override
+        public GoogleOAuthTokenPriority getPriority() {
+            return GoogleOAuthTokenPriority.BACKGROUND;
+        }
+
+        @Override
+        public void onRejected() {
+            if (mPermitLimiter != null) {
+                mPermitLimiter.release(mAccountName);
+            }
+            mCacheEntry.endRevalidation();
+        }
+
+        @Override
+        public void run() {
+            try {
+                mCacheEntry.setToken(getToken());
+            } catch (IOException e) {
+                // Keep serving the last known token, a later subscriber will try again.
+            } catch (Exception e) {
+                // The last known token can not be trusted anymore.
+                mCacheEntry.setToken(null);
+            } finally {
+                mCacheEntry.endRevalidation();
+            }
+        }
+    }
+
+    /**
+     * @return the target Google account name.
+     */
+    public String getAccountName() {
+        return mAccountName;
+    }
+
+    /**
+     * @return the OAuth token scope.
+     */
+    public String getScope() {
+        return mScope;
+    }
+
+    /**
+     * @return the last token acquired for this instance's account and scope, or for the same
+     * account and a set of scopes including this instance's ones, or null if none is known.
+     *
+     * @see GoogleOAuthTokenCache#getTokenCovering(GoogleOAuthTokenCache.Entry)
+     */
+    public String getCachedToken() {
+        return mCache.getTokenCovering(mCacheEntry);
+    }
+
+    /**
+     * Get a token on the calling thread, for callers already running on a worker thread such as
+     * sync adapters and job services. The last known token, or a stale one within the
+     * stale-while-revalidate grace window, is returned without allocating. Otherwise concurrent
+     * callers for the same account and scope share a single token call, including the retries of
+     * GoogleOAuthHttpExecutor, subject to this instance's rate limiter, priority, executor and
+     * main thread policy like subscriptions are.
+     *
+     * @see #setTimeout(long, java.util.concurrent.TimeUnit)
+     *
+     * @param timeout the maximum time to wait, 0 for this instance's timeout if any.
+     * @param unit the unit of the timeout argument.
+     * @return the token.
+     * @throws GoogleOAuthTokenTimeoutException if no token was acquired in time. The shared call
+     * keeps running and records its token for the next caller.
+     * @throws RejectedExecutionException if the executor was shut down.
+     * @throws Exception the error of the token call.
+     */
+    public String getToken(final long timeout, final TimeUnit unit) throws Exception {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout can not be negative.");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("Time unit can not be null.");
+        }
+
+        final String knownToken = getKnownToken();
+        if (knownToken != null) {
+            return knownToken;
+        }
+
+        final long timeoutMillis = timeout > 0 ? unit.toMillis(timeout) : mTimeoutMillis;
+        final TokenCall call = join(timeoutMillis > 0 || offloadFromMainThread());
+        try {
+            return timeoutMillis > 0 ? call.get(timeoutMillis, TimeUnit.MILLISECONDS) : call.get();
+        } catch (TimeoutException e) {
+            final GoogleOAuthTokenTimeoutException timeoutException =
+                    new GoogleOAuthTokenTimeoutException("No token for " + mScope + " within "
+                            + timeoutMillis + "ms.");
+            recordError(timeoutException);
+            throw timeoutException;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a token for " + mScope + ".");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Get a token without blocking the calling thread. The returned Future is already done with
+     * the last known token, or a stale one within the stale-while-revalidate grace window, if
+     * any. Otherwise it is the token call shared by the concurrent callers for the same account
+     * and scope, run on this instance's executor or the default GoogleOAuthTokenExecutor. Since
+     * other callers may wait for it, it can not be cancelled: use
+     * {@link Future#get(long, java.util.concurrent.TimeUnit)} to stop waiting instead.
+     * <br/>
+     * Futures fail with the errors subscribers would receive.
+     *
+     * @see #getToken(long, java.util.concurrent.TimeUnit)
+     *
+     * @return the Future of the token.
+     * @throws RejectedExecutionException if the executor was shut down.
+     */
+    public Future<String> getTokenAsync() {
+        final String knownToken = getKnownToken();
+        if (knownToken != null) {
+            return new KnownToken(knownToken);
+        }
+        return join(true);
+    }
+
+    private String getKnownToken() {
+        final String token = mCache.getTokenCovering(mCacheEntry);
+        if (token != null) {
+            return token;
+        }
+
+        final long graceMillis = mStaleGraceMillis;
+        if (graceMillis > 0) {
+            final String staleToken = mCacheEntry.getToken(graceMillis);
+            if (staleToken != null) {
+                revalidate();
+                return staleToken;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the token call in flight for this instance's account and scope, starting one when none
+     * is: on the calling thread unless offloaded, or on the executor.
+     */
+    private TokenCall join(final boolean offload) {
+        final TokenCall inFlight = IN_FLIGHT.get(mCacheEntry);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        final GoogleOAuthTokenExecutor executor = mExecutor;
+        final GoogleOAuthTokenExecutor taskExecutor;
+        if (executor != null) {
+            taskExecutor = executor;
+        } else if (offload || mPriority == GoogleOAuthTokenPriority.BACKGROUND) {
+            taskExecutor = GoogleOAuthTokenExecutor.getDefault();
+        } else {
+            taskExecutor = null;
+        }
+
+        final TokenCall call = new TokenCall(new TokenFetch(taskExecutor), mPriority);
+        final TokenCall raced = IN_FLIGHT.putIfAbsent(mCacheEntry, call);
+        if (raced != null) {
+            return raced;
+        }
+
+        if (taskExecutor != null) {
+            try {
+                taskExecutor.execute(call);
+            } catch (RejectedExecutionException e) {
+                // Fail whoever joined the call meanwhile, the next caller starts a new one.
+                call.onRejected();
+                IN_FLIGHT.remove(mCacheEntry, call);
+                throw e;
+            }
+        } else {
+            call.run();
+        }
+        return call;
+    }
+
+    /**
+     * @return true if the token call on the current thread was interrupted, its latency then
+     * says nothing about the load.
+     */
+    private static boolean isInterruption(final Exception error) {
+        return error instanceof InterruptedIOException || error instanceof InterruptedException
+                || Thread.currentThread().isInterrupted();
+    }
+
+    private static Exception rethrow(final Throwable cause) {
+        if (cause instanceof InterruptedException) {
+            return new InterruptedIOException("Token call interrupted.");
+        } else if (cause instanceof Exception) {
+            return (Exception) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * @return the cache where acquired tokens are recorded.
+     */
+    GoogleOAuthTokenCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Acquires a token on the calling thread and records it as the last known one.
+     *
+     * @return the acquired token.
+     */
+    String fetchToken() throws Exception {
+        final String token = getToken();
+        mCacheEntry.setToken(token);
+        return token;
+    }
+
+    /**
+     * A token call shared by the blocking and Future callers of an account and scope until it
+     * completes.
+     */
+    private final class TokenCall extends FutureTask<String>
+            implements GoogleOAuthTokenExecutor.Prioritized, GoogleOAuthTokenExecutor.Rejectable {
+
+        private final GoogleOAuthTokenPriority mCallPriority;
+
+        private TokenCall(final TokenFetch fetch, final GoogleOAuthTokenPriority priority) {
+            super(fetch);
+            mCallPriority = priority;
+        }
+
+        @Override
+        public GoogleOAuthTokenPriority getPriority() {
+            return mCallPriority;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            // Other callers may be waiting for the same call.
+            return false;
+        }
+
+        @Override
+        public void onRejected() {
+            setException(new RejectedExecutionException("Token executor shut down."));
+        }
+
+        @Override
+        protected void setException(final Throwable throwable) {
+            recordError(throwable);
+            super.setException(throwable);
+        }
+
+        @Override
+        protected void done() {
+            IN_FLIGHT.remove(mCacheEntry, this);
+        }
+    }
+
+    /**
+     * Acquires the token of a TokenCall once the rate limiter allows it.
+     */
+    private final class TokenFetch implements Callable<String> {
+
+        private final GoogleOAuthTokenExecutor mTaskExecutor;
+
+        private TokenFetch(final GoogleOAuthTokenExecutor executor) {
+            mTaskExecutor = executor;
+        }
+
+        @Override
+        public String call() throws Exception {
+            // A call completing since the cache was looked up already recorded its token.
+            final String knownToken = mCache.getTokenCovering(mCacheEntry);
+            if (knownToken != null) {
+                return knownToken;
+            }
+
+            final GoogleOAuthTokenRateLimiter rateLimiter = mRateLimiter;
+            if (rateLimiter != null) {
+                final long delayNanos = rateLimiter.reserve(mAccountName);
+                if (delayNanos == GoogleOAuthTokenRateLimiter.REJECTED) {
+                    throw new GoogleOAuthTokenRateLimitException(
+                            "Too many token calls for " + mAccountName + ".");
+                }
+                // Unlike subscriptions, wait on the thread running the call: the caller's own
+                // one unless offloaded.
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            }
+
+            if (mTaskExecutor == null) {
+                return fetchToken();
+            }
+
+            final long start = System.nanoTime();
+            Exception error = null;
+            try {
+                return fetchToken();
+            } catch (Exception e) {
+                error = e;
+                throw e;
+            } finally {
+                if (!isInterruption(error)) {
+                    mTaskExecutor.recordCall(System.nanoTime() - start,
+                            error instanceof IOException);
+                }
+            }
+        }
+    }
+
+    /**
+     * The Future of a token already known.
+     */
+    private static final class KnownToken implements Future<String> {
+
+        private final String mToken;
+
+        private KnownToken(final String token) {
+            mToken = token;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public String get() {
+            return mToken;
+        }
+
+        @Override
+        public String get(final long timeout, final TimeUnit unit) {
+            return mToken;
+        }
+    }
+
+    /**
+     * Runs a single token call on the executor racing against its deadline, if any, and the
+     * subscriber's unsubscription. Whichever happens first wins and the others are ignored.
+     */
+    private final class ExecutorFetch implements Runnable, Action0,
+            GoogleOAuthTokenExecutor.Prioritized, GoogleOAuthTokenExecutor.Rejectable {
+
+        private static final int STATE_PENDING = 0;
+
+        private static final int STATE_RUNNING = 1;
+
+        private static final int STATE_FINISHED = 2;
+
+        private static final int STATE_ABANDONED = 3;
+
+        private final Subscriber<? super String> mSubscriber;
+
+        private final GoogleOAuthTokenExecutor mTaskExecutor;
+
+        private final AtomicBoolean mDone = new AtomicBoolean();
+
+        private final AtomicInteger mState = new AtomicInteger(STATE_PENDING);
+
+        private final long mDeadlineMillis;
+
+        private final GoogleOAuthTokenPriority mTaskPriority;
+
+        private volatile Future<?> mFuture;
+
+        private ExecutorFetch(final Subscriber<? super String> subscriber,
+                              final GoogleOAuthTokenExecutor executor,
+                              final long deadlineMillis,
+                              final GoogleOAuthTokenPriority priority) {
+            mSubscriber = subscriber;
+            mTaskExecutor = executor;
+            mDeadlineMillis = deadlineMillis;
+            mTaskPriority = priority;
+        }
+
+        @Override
+        public GoogleOAuthTokenPriority getPriority() {
+            return mTaskPriority;
+        }
+
+        private void start(final Scheduler scheduler) {
+            mSubscriber.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    if (mDone.compareAndSet(false, true)) {
+                        abandon();
+                    }
+                }
+            }));
+            try {
+                mFuture = mTaskExecutor.submit(this);
+            } catch (RejectedExecutionException e) {
+                // Shut down, the subscriber receives the rejection instead of the token.
+                onRejected();
+                return;
+            }
+
+            if (mState.get() == STATE_ABANDONED) {
+                // Unsubscribed while submitting, make sure the call leaves the queue.
+                abandon();
+            }
+
+            if (mDeadlineMillis > 0) {
+                final Scheduler.Worker worker = scheduler.createWorker();
+                mSubscriber.add(worker);
+                worker.schedule(this, mDeadlineMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Deadline expired.
+         */
+        @Override
+        public void call() {
+            if (mDone.compareAndSet(false, true)) {
+                abandon();
+                final Throwable timeout = new GoogleOAuthTokenTimeoutException("No token for "
+                        + mScope + " within " + mDeadlineMillis + "ms.");
+                recordError(timeout);
+                mSubscriber.onError(timeout);
+            }
+        }
+
+        /**
+         * Executor shut down before the call could run.
+         */
+        @Override
+        public void onRejected() {
+            if (mDone.compareAndSet(false, true)) {
+                mState.compareAndSet(STATE_PENDING, STATE_ABANDONED);
+                onError(mSubscriber, new RejectedExecutionException("Token executor shut down."));
+            }
+        }
+
+        /**
+         * Token call on the executor.
+         */
+        @Override
+        public void run() {
+            if (mSubscriber.isUnsubscribed()
+                    || !mState.compareAndSet(STATE_PENDING, STATE_RUNNING)) {
+                return;
+            }
+
+            String token = null;
+            Exception error = null;
+            final long start = System.nanoTime();
+            try {
+                token = getToken();
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                final boolean abandoned;
+                synchronized (mTaskExecutor) {
+                    abandoned = !mState.compareAndSet(STATE_RUNNING, STATE_FINISHED);
+                    if (abandoned) {
+                        mTaskExecutor.onAbandonedTaskFinished();
+                    }
+                }
+
+                if (!abandoned && !isInterruption(error)) {
+                    mTaskExecutor.recordCall(System.nanoTime() - start,
+                            error instanceof IOException);
+                }
+            }
+
+            if (error == null) {
+                mCacheEntry.setToken(token);
+            }
+
+            if (mDone.compareAndSet(false, true)) {
+                if (error != null) {
+                    recordError(error);
+                    mSubscriber.onError(error);
+                } else {
+                    mSubscriber.onNext(token);
+                    mSubscriber.onCompleted();
+                }
+            }
+        }
+
+        private void abandon() {
+            // Marking the call abandoned and growing the pool must look atomic to run(), which
+            // shrinks the pool back under the same lock once the call returns.
+            synchronized (mTaskExecutor) {
+                if (mState.compareAndSet(STATE_RUNNING, STATE_ABANDONED)) {
+                    // The call may ignore the interruption, compensate for its blocked thread.
+                    mTaskExecutor.onTaskAbandoned();
+                } else {
+                    mState.compareAndSet(STATE_PENDING, STATE_ABANDONED);
+                }
+            }
+
+            final Future<?> future = mFuture;
+            if (future != null) {
+                future.cancel(true);
+                // Drop the call from the queue if it did not start yet.
+                mTaskExecutor.remove((Runnable) future);
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements the executor running blocking Google Play Services token calls off the
+ * caller's thread.
+ * <br/>
+ * A token call that does not respond to interruption after being cancelled keeps its thread
+ * blocked until Google Play Services returns. Such calls are reported as abandoned and the pool
+ * temporarily grows by one thread for each of them, so that stuck calls can not starve the
+ * remaining requests.
+ * <br/>
+ * Queued calls are served by priority, interactive calls first, then in submission order.
+ * While interactive calls are queued or running, background calls may only occupy all threads
+ * but one, the others are deferred until a background or interactive call finishes or the pool
+ * grows, so that interactive calls arriving in a burst find a thread. Background calls use every
+ * thread otherwise, so a pool limited to a single thread still runs them. Calls still deferred
+ * when the executor shuts down are cancelled.
+ *
+ * @see com.github.dpsm.android.auth.GoogleOAuthTokenPriority
+ */
+public class GoogleOAuthTokenExecutor extends ThreadPoolExecutor {
+
+    private static final int DEFAULT_POOL_SIZE = 2;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final GoogleOAuthTokenExecutor DEFAULT =
+            new GoogleOAuthTokenExecutor(DEFAULT_POOL_SIZE);
+
+    /**
+     * Tasks submitted to this executor implement this interface to be served by priority. Tasks
+     * not implementing it are served as interactive.
+     */
+    public static interface Prioritized {
+
+        /**
+         * @return the priority of this task.
+         */
+        GoogleOAuthTokenPriority getPriority();
+    }
+
+    private final int mFixedPoolSize;
+
+    private int mPoolSize;
+
+    private volatile int mMaxBackground;
+
+    private GoogleOAuthTokenConcurrencyLimiter mConcurrencyLimiter;
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final Queue<PriorityTask<?>> mDeferred = new LinkedList<PriorityTask<?>>();
+
+    private int mAbandonedCount;
+
+    private int mRunningBackground;
+
+    private int mRunningInteractive;
+
+    /**
+     * @return the process wide executor instance used when none is specified.
+     */
+    public static GoogleOAuthTokenExecutor getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Tasks submitted to this executor implement this interface to be told when they will never
+     * run, such as background calls still deferred when the executor shuts down.
+     */
+    public static interface Rejectable {
+
+        /**
+         * Called instead of running this task, which must complete whoever waits for it.
+         */
+        void onRejected();
+    }
+
+    /**
+     * Creates an executor running at most the specified number of token calls at once, not
+     * accounting for abandoned calls.
+     *
+     * @param poolSize the number of threads serving token calls.
+     */
+    public GoogleOAuthTokenExecutor(final int poolSize) {
+        super(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new AuthThreadFactory());
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive.");
+        }
+        mFixedPoolSize = poolSize;
+        mPoolSize = poolSize;
+        mMaxBackground = poolSize - 1;
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reports that a running token call was cancelled but may still hold its thread. The pool
+     * grows by one thread until the call returns.
+     *
+     * @see #onAbandonedTaskFinished()
+     */
+    public synchronized void onTaskAbandoned() {
+        mAbandonedCount++;
+        resize();
+    }
+
+    /**
+     * Reports that an abandoned token call finally returned, shrinking the pool back. Reports
+     * without a matching onTaskAbandoned() are ignored.
+     *
+     * @see #onTaskAbandoned()
+     */
+    public synchronized void onAbandonedTaskFinished() {
+        if (mAbandonedCount > 0) {
+            mAbandonedCount--;
+            resize();
+        }
+    }
+
+    /**
+     * Sets a limiter adapting the number of threads serving token calls from their observed
+     * latency and failures, replacing the fixed pool size while set.
+     *
+     * @see #recordCall(long, boolean)
+     *
+     * @param limiter the limiter or null to go back to the fixed pool size.
+     */
+    public synchronized void setConcurrencyLimiter(
+            final GoogleOAuthTokenConcurrencyLimiter limiter) {
+        mConcurrencyLimiter = limiter;
+        resize();
+    }
+
+    /**
+     * Records the outcome of a token call run by this executor, adapting the number of threads
+     * when a concurrency limiter is set. Abandoned and interrupted calls must not be recorded.
+     *
+     * @param latencyNanos the time the call took.
+     * @param failed true if the call failed with an IOException, false otherwise.
+     */
+    public void recordCall(final long latencyNanos, final boolean failed) {
+        final GoogleOAuthTokenConcurrencyLimiter limiter;
+        synchronized (this) {
+            limiter = mConcurrencyLimiter;
+        }
+
+        if (limiter != null) {
+            final int limit = limiter.onSample(latencyNanos, failed);
+            synchronized (this) {
+                if (limiter == mConcurrencyLimiter && limit != mPoolSize) {
+                    resize();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of token calls currently allowed to run at once, not accounting for
+     * abandoned calls.
+     */
+    public synchronized int getConcurrencyLimit() {
+        return mPoolSize;
+    }
+
+    /**
+     * @return the number of token calls waiting for a thread, including deferred ones.
+     */
+    public int getQueueLength() {
+        return getQueue().size() + getDeferredCount();
+    }
+
+    private void resize() {
+        mPoolSize = mConcurrencyLimiter != null ? mConcurrencyLimiter.getLimit() : mFixedPoolSize;
+        mMaxBackground = mPoolSize - 1;
+
+        final int size = mPoolSize + mAbandonedCount;
+        if (size > getMaximumPoolSize()) {
+            setMaximumPoolSize(size);
+            setCorePoolSize(size);
+        } else {
+            setCorePoolSize(size);
+            setMaximumPoolSize(size);
+        }
+        resumeDeferred();
+    }
+
+    /**
+     * Resubmits the deferred background calls allowed to run since the pool grew.
+     */
+    private void resumeDeferred() {
+        while (!isShutdown()) {
+            final PriorityTask<?> next;
+            synchronized (mDeferred) {
+                if (mRunningBackground >= mMaxBackground && isInteractiveBusy()) {
+                    return;
+                }
+                next = mDeferred.poll();
+            }
+
+            if (next == null) {
+                return;
+            }
+            execute(next);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        rejectDeferred();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> pending = super.shutdownNow();
+        rejectDeferred();
+        return pending;
+    }
+
+    /**
+     * Cancels the deferred background calls, which can not be resubmitted once shut down.
+     */
+    private void rejectDeferred() {
+        final List<PriorityTask<?>> rejected;
+        synchronized (mDeferred) {
+            rejected = new ArrayList<PriorityTask<?>>(mDeferred);
+            mDeferred.clear();
+        }
+
+        for (final PriorityTask<?> task : rejected) {
+            task.reject();
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        // The priority queue only accepts PriorityTask instances.
+        super.execute(command instanceof PriorityTask ? command : newTaskFor(command, null));
+    }
+
+    @Override
+    public boolean remove(final Runnable task) {
+        synchronized (mDeferred) {
+            if (mDeferred.remove(task)) {
+                return true;
+            }
+        }
+        return super.remove(task);
+    }
+
+    /**
+     * @return true if interactive calls are running or queued, guarded by mDeferred.
+     */
+    private boolean isInteractiveBusy() {
+        if (mRunningInteractive > 0) {
+            return true;
+        }
+        // Interactive calls are queued first.
+        final Runnable head = getQueue().peek();
+        return head instanceof PriorityTask
+                && ((PriorityTask<?>) head).mPriority == GoogleOAuthTokenPriority.INTERACTIVE;
+    }
+
+    /**
+     * @return the number of background calls waiting for a running call to finish.
+     */
+    public int getDeferredCount() {
+        synchronized (mDeferred) {
+            return mDeferred.size();
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+        final GoogleOAuthTokenPriority priority = runnable instanceof Prioritized
+                ? ((Prioritized) runnable).getPriority() : GoogleOAuthTokenPriority.INTERACTIVE;
+        return new PriorityTask<T>(runnable, value, priority, mSequence.getAndIncrement());
+    }
+
+    /**
+     * @return the number of token calls abandoned but not yet returned.
+     */
+    public synchronized int getAbandonedCount() {
+        return mAbandonedCount;
+    }
+
+    private final class PriorityTask<T> extends FutureTask<T>
+            implements Comparable<PriorityTask<?>> {
+
+        private final Runnable mRunnable;
+
+        private final GoogleOAuthTokenPriority mPriority;
+
+        private final long mSequence;
+
+        private PriorityTask(final Runnable runnable, final T value,
+                             final GoogleOAuthTokenPriority priority, final long sequence) {
+            super(runnable, value);
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        private void reject() {
+            if (cancel(false) && mRunnable instanceof Rejectable) {
+                ((Rejectable) mRunnable).onRejected();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mPriority == GoogleOAuthTokenPriority.INTERACTIVE) {
+                runInteractive();
+                return;
+            }
+
+            boolean rejected = false;
+            synchronized (mDeferred) {
+                if (mRunningBackground >= mMaxBackground && isInteractiveBusy()) {
+                    if (isShutdown()) {
+                        // Nothing could resume this call anymore.
+                        rejected = true;
+                    } else {
+                        // Keep a thread free for interactive calls, resumed by the next to finish.
+                        mDeferred.add(this);
+                        return;
+                    }
+                } else {
+                    mRunningBackground++;
+                }
+            }
+
+            if (rejected) {
+                reject();
+                return;
+            }
+
+            try {
+                super.run();
+            } finally {
+                synchronized (mDeferred) {
+                    mRunningBackground--;
+                }
+
+                if (isShutdown()) {
+                    rejectDeferred();
+                } else {
+                    resumeDeferred();
+                }
+            }
+        }
+
+        private void runInteractive() {
+            synchronized (mDeferred) {
+                mRunningInteractive++;
+            }
+
+            try {
+                super.run();
+            } finally {
+                synchronized (mDeferred) {
+                    mRunningInteractive--;
+                }
+
+                if (isShutdown()) {
+                    rejectDeferred();
+                } else {
+                    resumeDeferred();
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(final PriorityTask<?> another) {
+            final int byPriority = mPriority.compareTo(another.mPriority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    private static final class AuthThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread =
+                    new Thread(runnable, "GoogleOAuthToken-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+
+/**
+ * This class implements a Scheduler delivering on the thread of a Handler, the main thread by
+ * default, in batches. Actions scheduled from any thread are added to a lock-free queue and a
+ * single message drains the queue, at most once per frame, so that many tokens completing at
+ * once cost one message and one round of UI work instead of one each.
+ *
+ * @see OperatorGoogleAuthenticationController#setFrameCoalescedDelivery(boolean)
+ */
+public class GoogleOAuthTokenFrameScheduler extends Scheduler {
+
+    private static final long FRAME_MILLIS = 16;
+
+    private static volatile GoogleOAuthTokenFrameScheduler sDefault;
+
+    private final Handler mHandler;
+
+    private final Queue<ScheduledAction> mQueue = new ConcurrentLinkedQueue<ScheduledAction>();
+
+    private final AtomicBoolean mDrainPosted = new AtomicBoolean();
+
+    private final AtomicLong mPostCount = new AtomicLong();
+
+    private volatile long mLastDrainUptime = -FRAME_MILLIS;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            mLastDrainUptime = SystemClock.uptimeMillis();
+            // Actions added from now on need another message, possibly for this same batch.
+            mDrainPosted.set(false);
+            ScheduledAction action;
+            while ((action = mQueue.poll()) != null) {
+                action.run();
+            }
+        }
+    };
+
+    /**
+     * @return the process wide scheduler delivering on the main thread.
+     */
+    public static GoogleOAuthTokenFrameScheduler getDefault() {
+        if (sDefault == null) {
+            synchronized (GoogleOAuthTokenFrameScheduler.class) {
+                if (sDefault == null) {
+                    sDefault = new GoogleOAuthTokenFrameScheduler(
+                            new Handler(Looper.getMainLooper()));
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * Creates a scheduler delivering batches on the specified Handler's thread.
+     *
+     * @param handler the Handler to post batches to.
+     */
+    public GoogleOAuthTokenFrameScheduler(final Handler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler can not be null.");
+        }
+        mHandler = handler;
+    }
+
+    @Override
+    public Worker createWorker() {
+        return new FrameWorker();
+    }
+
+    /**
+     * @return the number of messages posted to drain batches.
+     */
+    public long getPostCount() {
+        return mPostCount.get();
+    }
+
+    private void enqueue(final ScheduledAction action) {
+        mQueue.add(action);
+        if (mDrainPosted.compareAndSet(false, true)) {
+            mPostCount.incrementAndGet();
+            final long sinceLastDrain = SystemClock.uptimeMillis() - mLastDrainUptime;
+            if (sinceLastDrain >= FRAME_MILLIS) {
+                mHandler.post(mDrain);
+            } else {
+                mHandler.postDelayed(mDrain, FRAME_MILLIS - sinceLastDrain);
+            }
+        }
+    }
+
+    private final class FrameWorker extends Worker {
+
+        private volatile boolean mUnsubscribed;
+
+        @Override
+        public Subscription schedule(final Action0 action) {
+            final ScheduledAction scheduled = new ScheduledAction(this, action);
+            if (!mUnsubscribed) {
+                enqueue(scheduled);
+            }
+            return scheduled;
+        }
+
+        @Override
+        public Subscription schedule(final Action0 action, final long delay, final TimeUnit unit) {
+            if (delay <= 0) {
+                return schedule(action);
+            }
+
+            final ScheduledAction scheduled = new ScheduledAction(this, action);
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (!scheduled.isUnsubscribed()) {
+                        enqueue(scheduled);
+                    }
+                }
+            }, unit.toMillis(delay));
+            return scheduled;
+        }
+
+        @Override
+        public void unsubscribe() {
+            mUnsubscribed = true;
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return mUnsubscribed;
+        }
+    }
+
+    private static final class ScheduledAction implements Subscription {
+
+        private final FrameWorker mWorker;
+
+        private final Action0 mAction;
+
+        private volatile boolean mUnsubscribed;
+
+        private ScheduledAction(final FrameWorker worker, final Action0 action) {
+            mWorker = worker;
+            mAction = action;
+        }
+
+        private void run() {
+            if (!isUnsubscribed()) {
+                mAction.call();
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+            mUnsubscribed = true;
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return mUnsubscribed || mWorker.isUnsubscribed();
+        }
+    }
+}
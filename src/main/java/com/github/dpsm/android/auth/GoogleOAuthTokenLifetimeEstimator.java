@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class learns the effective lifetime of the tokens granted for each scope so that cached
+ * tokens are only served while they are likely to still be accepted. The lifetime of the tokens
+ * returned by GoogleAuthUtil is not known, each estimate starts from a guess and moves towards
+ * the ages at which tokens are observed to be rejected, replaced or still returned, giving each
+ * observation a fixed weight so that older ones decay.
+ * <br/>
+ * The default instance backs the default GoogleOAuthTokenCache and keeps its estimates in
+ * SharedPreferences once the first GoogleOAuthTokenOnSubscribe is created, so that they survive
+ * process restarts. They are read in the background, the initial guess applies meanwhile. This
+ * class itself does not depend on Android and runs on a plain JVM.
+ *
+ * @see GoogleOAuthTokenCache#getTokenCovering(GoogleOAuthTokenCache.Entry)
+ */
+public class GoogleOAuthTokenLifetimeEstimator {
+
+    /**
+     * Implementations of this interface persist the estimates of an estimator.
+     */
+    public static interface Store {
+
+        /**
+         * @return the persisted lifetimes in milliseconds by canonical scope.
+         */
+        Map<String, Long> load();
+
+        /**
+         * Persists the lifetime estimated for the specified scope. Called on the thread making
+         * the observation, implementations should not block it.
+         *
+         * @param scope the canonical scope.
+         * @param lifetimeMillis the estimated lifetime in milliseconds.
+         */
+        void save(String scope, long lifetimeMillis);
+    }
+
+    /**
+     * The lifetime assumed for the scopes nothing was observed for yet.
+     */
+    public static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(45);
+
+    private static final long MIN_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long MAX_LIFETIME_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Weight of each observation, the weight of older ones decays by (1 - WEIGHT) each time.
+    private static final double WEIGHT = 0.25;
+
+    // Tokens are served as fresh for this fraction of the estimated lifetime.
+    private static final double FRESH_FRACTION = 0.9;
+
+    private static final GoogleOAuthTokenLifetimeEstimator DEFAULT =
+            new GoogleOAuthTokenLifetimeEstimator(DEFAULT_LIFETIME_MILLIS);
+
+    private final long mInitialLifetimeMillis;
+
+    private final ConcurrentHashMap<String, AtomicLong> mLifetimes =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    private volatile Store mStore;
+
+    /**
+     * @return the process wide instance backing the default cache.
+     */
+    public static GoogleOAuthTokenLifetimeEstimator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates an instance of this class keeping its estimates in memory.
+     *
+     * @param initialLifetimeMillis the lifetime assumed before anything is observed.
+     */
+    public GoogleOAuthTokenLifetimeEstimator(final long initialLifetimeMillis) {
+        if (initialLifetimeMillis < MIN_LIFETIME_MILLIS) {
+            throw new IllegalArgumentException("Initial lifetime can not be less than "
+                    + MIN_LIFETIME_MILLIS + "ms.");
+        }
+        mInitialLifetimeMillis = initialLifetimeMillis;
+    }
+
+    /**
+     * Persists this instance's estimates in the specified store and restores the ones persisted
+     * there before. Only the first store attached is used.
+     *
+     * @param store the store to persist the estimates in.
+     * @return true if the store was attached, false if one already was.
+     */
+    public boolean attach(final Store store) {
+        if (store == null) {
+            throw new IllegalArgumentException("Store can not be null.");
+        }
+
+        synchronized (this) {
+            if (mStore != null) {
+                return false;
+            }
+            mStore = store;
+        }
+
+        for (final Map.Entry<String, Long> persisted : store.load().entrySet()) {
+            getLifetime(persisted.getKey()).set(clamp(persisted.getValue()));
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a store is attached to this instance, false otherwise.
+     */
+    public boolean isAttached() {
+        return mStore != null;
+    }
+
+    /**
+     * @param scope the canonical scope.
+     * @return the estimated lifetime of the tokens granted for the scope, in milliseconds.
+     */
+    public long getLifetimeMillis(final String scope) {
+        return getLifetime(scope).get();
+    }
+
+    /**
+     * @param scope the canonical scope.
+     * @return the age until which the tokens granted for the scope are served as fresh, in
+     * milliseconds.
+     */
+    public long getFreshMillis(final String scope) {
+        return (long) (getLifetime(scope).get() * FRESH_FRACTION);
+    }
+
+    /**
+     * Records that a token granted for the specified scope was rejected at the specified age,
+     * its lifetime was at most that age.
+     *
+     * @param scope the canonical scope.
+     * @param ageMillis the age of the token when rejected.
+     */
+    public void onTokenRejected(final String scope, final long ageMillis) {
+        if (ageMillis < getLifetimeMillis(scope)) {
+            observe(scope, ageMillis);
+        }
+    }
+
+    /**
+     * Records the result of fetching a token for the specified scope while the previous one
+     * had the specified age: the same token means its lifetime exceeds that age, a new one that
+     * it was at most that age. Only the former raises the estimate and only the latter lowers it.
+     * Since the same token was still accepted at that age, it is served as fresh again: the
+     * estimate is raised at least so far that the fresh age exceeds that age by the same fraction
+     * the lifetime exceeds the fresh age.
+     *
+     * @param scope the canonical scope.
+     * @param ageMillis the age of the previous token.
+     * @param replaced true if a new token was returned, false if the previous one was.
+     */
+    public void onTokenRefetched(final String scope, final long ageMillis,
+                                 final boolean replaced) {
+        final long lifetimeMillis = getLifetimeMillis(scope);
+        if (replaced ? ageMillis < lifetimeMillis : ageMillis > lifetimeMillis) {
+            observe(scope, ageMillis);
+        }
+
+        if (!replaced) {
+            raise(scope, (long) Math.ceil(ageMillis / (FRESH_FRACTION * FRESH_FRACTION)));
+        }
+    }
+
+    private void raise(final String scope, final long minimumMillis) {
+        final AtomicLong lifetime = getLifetime(scope);
+        long current;
+        long next;
+        do {
+            current = lifetime.get();
+            next = clamp(Math.max(current, minimumMillis));
+        } while (next != current && !lifetime.compareAndSet(current, next));
+
+        final Store store = mStore;
+        if (store != null && next != current) {
+            store.save(scope, next);
+        }
+    }
+
+    private void observe(final String scope, final long ageMillis) {
+        final AtomicLong lifetime = getLifetime(scope);
+        long current;
+        long next;
+        do {
+            current = lifetime.get();
+            next = clamp(current + Math.round((ageMillis - current) * WEIGHT));
+        } while (!lifetime.compareAndSet(current, next));
+
+        final Store store = mStore;
+        if (store != null && next != current) {
+            store.save(scope, next);
+        }
+    }
+
+    private AtomicLong getLifetime(final String scope) {
+        AtomicLong lifetime = mLifetimes.get(scope);
+        if (lifetime == null) {
+            // Persisted estimates were all restored when the store was attached.
+            final AtomicLong created = new AtomicLong(mInitialLifetimeMillis);
+            lifetime = mLifetimes.putIfAbsent(scope, created);
+            if (lifetime == null) {
+                lifetime = created;
+            }
+        }
+        return lifetime;
+    }
+
+    private static long clamp(final long lifetimeMillis) {
+        return Math.max(MIN_LIFETIME_MILLIS, Math.min(MAX_LIFETIME_MILLIS, lifetimeMillis));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+/**
+ * This class persists the estimates of a GoogleOAuthTokenLifetimeEstimator in the application's
+ * SharedPreferences.
+ */
+final class GoogleOAuthTokenLifetimePreferences implements GoogleOAuthTokenLifetimeEstimator.Store {
+
+    private static final String PREFERENCES_NAME =
+            GoogleOAuthTokenLifetimeEstimator.class.getName();
+
+    private final SharedPreferences mPreferences;
+
+    private static final AtomicBoolean ATTACHING = new AtomicBoolean();
+
+    /**
+     * Persists the estimates of the default estimator unless a store is already attached to it.
+     * The persisted estimates are read on an I/O thread, never on the caller's one.
+     *
+     * @param context the context to get the SharedPreferences from.
+     */
+    static void attachDefault(final Context context) {
+        final GoogleOAuthTokenLifetimeEstimator estimator =
+                GoogleOAuthTokenLifetimeEstimator.getDefault();
+        if (estimator.isAttached() || !ATTACHING.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Scheduler.Worker worker = Schedulers.io().createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    estimator.attach(new GoogleOAuthTokenLifetimePreferences(context));
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+
+    GoogleOAuthTokenLifetimePreferences(final Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public Map<String, Long> load() {
+        final Map<String, Long> lifetimes = new HashMap<String, Long>();
+        for (final Map.Entry<String, ?> persisted : mPreferences.getAll().entrySet()) {
+            if (persisted.getValue() instanceof Long) {
+                lifetimes.put(persisted.getKey(), (Long) persisted.getValue());
+            }
+        }
+        return lifetimes;
+    }
+
+    @Override
+    public void save(final String scope, final long lifetimeMillis) {
+        mPreferences.edit().putLong(scope, lifetimeMillis).apply();
+    }
+}
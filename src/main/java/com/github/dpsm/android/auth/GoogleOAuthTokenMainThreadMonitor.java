@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class records token calls made on the main thread by call site so that callers missing
+ * a subscribeOn(..) can be found without crashing users. The first call from each call site is
+ * logged as a warning.
+ *
+ * @see com.github.dpsm.android.auth.GoogleOAuthTokenMainThreadPolicy
+ */
+public class GoogleOAuthTokenMainThreadMonitor {
+
+    private static final String TAG = GoogleOAuthTokenMainThreadMonitor.class.getSimpleName();
+
+    private static final String LIBRARY_PACKAGE = "com.github.dpsm.android.";
+
+    private static final String RX_PACKAGE = "rx.";
+
+    private static final GoogleOAuthTokenMainThreadMonitor DEFAULT =
+            new GoogleOAuthTokenMainThreadMonitor();
+
+    private final ConcurrentMap<String, AtomicInteger> mCallSites =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    /**
+     * @return the process wide monitor used by GoogleOAuthTokenOnSubscribe instances.
+     */
+    public static GoogleOAuthTokenMainThreadMonitor getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return true if the calling thread is the main thread.
+     */
+    public boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * Records a token call made on the main thread, attributing it to the first caller frame
+     * outside of this library and RxJava.
+     *
+     * @return the call site.
+     */
+    public String record() {
+        final String callSite = findCallSite(new Throwable().getStackTrace());
+        mCount.incrementAndGet();
+
+        AtomicInteger count = mCallSites.get(callSite);
+        if (count == null) {
+            final AtomicInteger newCount = new AtomicInteger();
+            count = mCallSites.putIfAbsent(callSite, newCount);
+            if (count == null) {
+                count = newCount;
+                Log.w(TAG, "Google OAuth token requested on the main thread from " + callSite
+                        + ", subscribe on a background scheduler instead.");
+            }
+        }
+        count.incrementAndGet();
+        return callSite;
+    }
+
+    /**
+     * @return the number of token calls made on the main thread.
+     */
+    public int getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return the number of token calls made on the main thread by call site.
+     */
+    public Map<String, Integer> getCallSites() {
+        final Map<String, Integer> callSites = new HashMap<String, Integer>();
+        for (final Map.Entry<String, AtomicInteger> entry : mCallSites.entrySet()) {
+            callSites.put(entry.getKey(), entry.getValue().get());
+        }
+        return callSites;
+    }
+
+    /**
+     * Forgets the recorded call sites, keeping the total count.
+     *
+     * @return the number of call sites forgotten.
+     */
+    public int clearCallSites() {
+        final int size = mCallSites.size();
+        mCallSites.clear();
+        return size;
+    }
+
+    private static String findCallSite(final StackTraceElement[] stackTrace) {
+        for (final StackTraceElement element : stackTrace) {
+            final String className = element.getClassName();
+            if (!className.startsWith(LIBRARY_PACKAGE) && !className.startsWith(RX_PACKAGE)) {
+                return element.toString();
+            }
+        }
+        return stackTrace.length > 0 ? stackTrace[stackTrace.length - 1].toString() : "unknown";
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+/**
+ * What to do with a token call about to block the main thread because the caller did not
+ * subscribe on a background scheduler. Such calls are always recorded by the
+ * GoogleOAuthTokenMainThreadMonitor.
+ *
+ * @see GoogleOAuthTokenOnSubscribe#setMainThreadPolicy(GoogleOAuthTokenMainThreadPolicy)
+ */
+public enum GoogleOAuthTokenMainThreadPolicy {
+
+    /**
+     * Call GoogleAuthUtil on the main thread anyway, which fails the subscriber with an
+     * IllegalStateException.
+     */
+    ALLOW,
+
+    /**
+     * Run the call on the executor instead and deliver the token from there.
+     */
+    OFFLOAD
+}
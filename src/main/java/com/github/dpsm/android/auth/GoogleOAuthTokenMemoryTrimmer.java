@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class releases the state this library keeps in memory when the system runs low on memory:
+ * the tokens of a GoogleOAuthTokenCache and the call sites recorded by a
+ * GoogleOAuthTokenMainThreadMonitor. The higher the trim level, the more is released, keeping
+ * the tokens most likely to be needed again for last.
+ * <br/>
+ * The default instance is registered with the application on API 14 and above when the first
+ * GoogleOAuthTokenOnSubscribe is created. Below API 14, applications may forward their
+ * onLowMemory() to it.
+ *
+ * @see android.content.ComponentCallbacks2#onTrimMemory(int)
+ */
+public class GoogleOAuthTokenMemoryTrimmer {
+
+    private static final String TAG = GoogleOAuthTokenMemoryTrimmer.class.getSimpleName();
+
+    private static final long STALE_TOKEN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final GoogleOAuthTokenMemoryTrimmer DEFAULT = new GoogleOAuthTokenMemoryTrimmer(
+            GoogleOAuthTokenCache.getDefault(), GoogleOAuthTokenMainThreadMonitor.getDefault());
+
+    private final GoogleOAuthTokenCache mCache;
+
+    private final GoogleOAuthTokenMainThreadMonitor mMonitor;
+
+    private final AtomicBoolean mRegistered = new AtomicBoolean();
+
+    private final AtomicLong mReleasedTokenCount = new AtomicLong();
+
+    private final AtomicLong mReleasedCallSiteCount = new AtomicLong();
+
+    /**
+     * @return the process wide instance trimming the default cache and monitor.
+     */
+    public static GoogleOAuthTokenMemoryTrimmer getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates an instance trimming the specified cache and monitor.
+     *
+     * @param cache the cache to trim.
+     * @param monitor the monitor to trim.
+     */
+    public GoogleOAuthTokenMemoryTrimmer(final GoogleOAuthTokenCache cache,
+                                         final GoogleOAuthTokenMainThreadMonitor monitor) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Token cache can not be null.");
+        }
+
+        if (monitor == null) {
+            throw new IllegalArgumentException("Main thread monitor can not be null.");
+        }
+        mCache = cache;
+        mMonitor = monitor;
+    }
+
+    /**
+     * Registers this instance with the application of the specified Context so that it is
+     * notified of trim requests. Does nothing below API 14 or if already registered.
+     *
+     * @param context any Context of the application.
+     * @return true if this instance was registered by this call, false otherwise.
+     */
+    public boolean register(final Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context can not be null.");
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                || !mRegistered.compareAndSet(false, true)) {
+            return false;
+        }
+
+        final Context applicationContext = context.getApplicationContext();
+        (applicationContext != null ? applicationContext : context)
+                .registerComponentCallbacks(new Callbacks(this));
+        return true;
+    }
+
+    /**
+     * Releases memory according to the specified trim level.
+     *
+     * @param level the trim level, one of the ComponentCallbacks2.TRIM_MEMORY_* values.
+     * @return the number of tokens and call sites released.
+     */
+    public int onTrimMemory(final int level) {
+        final int releasedTokens;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            // Next in line to be killed, keep nothing.
+            releasedTokens = mCache.trimOlderThan(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            releasedTokens = mCache.trimToNewestPerAccount();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // Tokens this old are close to expiring anyway.
+            releasedTokens = mCache.trimOlderThan(STALE_TOKEN_MILLIS);
+        } else {
+            // Hidden UI or moderate pressure while running, nothing worth losing state for.
+            return 0;
+        }
+        final int releasedCallSites = mMonitor.clearCallSites();
+
+        mReleasedTokenCount.addAndGet(releasedTokens);
+        mReleasedCallSiteCount.addAndGet(releasedCallSites);
+        if (releasedTokens + releasedCallSites > 0) {
+            Log.i(TAG, "Trim level " + level + " released " + releasedTokens + " tokens and "
+                    + releasedCallSites + " main thread call sites.");
+        }
+        return releasedTokens + releasedCallSites;
+    }
+
+    /**
+     * Releases all the memory that can be released.
+     *
+     * @return the number of tokens and call sites released.
+     */
+    public int onLowMemory() {
+        return onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * @return the number of tokens released since this instance was created.
+     */
+    public long getReleasedTokenCount() {
+        return mReleasedTokenCount.get();
+    }
+
+    /**
+     * @return the number of main thread call sites released since this instance was created.
+     */
+    public long getReleasedCallSiteCount() {
+        return mReleasedCallSiteCount.get();
+    }
+
+    /**
+     * Forwards the system callbacks, kept apart so that this class loads below API 14.
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static final class Callbacks implements ComponentCallbacks2 {
+
+        private final GoogleOAuthTokenMemoryTrimmer mTrimmer;
+
+        private Callbacks(final GoogleOAuthTokenMemoryTrimmer trimmer) {
+            mTrimmer = trimmer;
+        }
+
+        @Override
+        public void onTrimMemory(final int level) {
+            mTrimmer.onTrimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            mTrimmer.onLowMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig) {
+        }
+    }
+}
@@ -16,29 +16,37 @@
 package com.github.dpsm.android.auth;
 
 import android.content.Context;
-import android.text.TextUtils;
+
+import com.github.dpsm.android.diagnostics.AuthFlightRecorder;
+import com.github.dpsm.android.diagnostics.AuthTrace;
 
 import com.google.android.gms.auth.GoogleAuthException;
-import com.google.android.gms.auth.GoogleAuthUtil;
-import com.google.android.gms.auth.UserRecoverableAuthException;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import rx.Observable;
 import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
 
 /**
- * This class implements Observable.OnSubscribe in order to emit Google OAuth access tokens.
+ * This class implements Observable.OnSubscribe in order to emit Google OAuth access tokens
+ * acquired from Google Play services.
  *
  * @see com.google.android.gms.auth.GoogleAuthUtil#getToken(android.content.Context, String, String)
+ * @see GoogleOAuthTokenEngine
  */
-public class GoogleOAuthTokenOnSubscribe implements Observable.OnSubscribe<String> {
+public class GoogleOAuthTokenOnSubscribe extends GoogleOAuthTokenEngine {
 
-    private final Context mContext;
+    private static final String TRACE_GET_TOKEN = "GoogleOAuthToken#getToken";
 
-    private final String mAccountName;
+    private static final String TRACE_REQUEST = "GoogleOAuthToken#request";
 
-    private final String mScope;
+    private final Context mContext;
+
+    private volatile GoogleOAuthTokenMainThreadPolicy mMainThreadPolicy =
+            GoogleOAuthTokenMainThreadPolicy.ALLOW;
 
     /**
      * Creates an instance of a GoogleOAuthTokenOnSubscribe bound to the specified Context
@@ -50,47 +58,191 @@ public class GoogleOAuthTokenOnSubscribe implements Observable.OnSubscribe<Strin
      */
     public GoogleOAuthTokenOnSubscribe(final Context context, final String accountName,
                                        final String scope) {
+        this(context, accountName, scope, GoogleOAuthTokenCache.getDefault());
+    }
+
+    /**
+     * Creates an instance of a GoogleOAuthTokenOnSubscribe bound to the specified Context
+     * to emit access tokens for the specified account and record them in the specified cache.
+     *
+     * @param context the context to use to interact with the Android system.
+     * @param accountName the target Google account name.
+     * @param scope the OAuth token scope.
+     * @param cache the cache where acquired tokens are recorded.
+     */
+    public GoogleOAuthTokenOnSubscribe(final Context context, final String accountName,
+                                       final String scope, final GoogleOAuthTokenCache cache) {
+        super(accountName, scope, cache);
         if (context == null) {
             throw new IllegalArgumentException("Context can not be null.");
         }
 
-        if (TextUtils.isEmpty(accountName)) {
-            throw new IllegalArgumentException("Account name can not be null or empty.");
+        // Token calls may outlive the component that started them, never hold it.
+        final Context applicationContext = context.getApplicationContext();
+        mContext = applicationContext != null ? applicationContext : context;
+        GoogleOAuthTokenAndroidClock.install();
+        GoogleOAuthTokenMemoryTrimmer.getDefault().register(mContext);
+        if (cache.getLifetimeEstimator() == GoogleOAuthTokenLifetimeEstimator.getDefault()) {
+            // Learned lifetimes survive restarts, restored in the background.
+            GoogleOAuthTokenLifetimePreferences.attachDefault(mContext);
         }
+    }
 
-        if (TextUtils.isEmpty(scope)) {
-            throw new IllegalArgumentException("Token scope can not be null or empty.");
+    /**
+     * Sets what to do with token calls about to block the main thread. Such calls are recorded
+     * by the default GoogleOAuthTokenMainThreadMonitor whatever the policy.
+     *
+     * @param policy the main thread policy.
+     */
+    public void setMainThreadPolicy(final GoogleOAuthTokenMainThreadPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Main thread policy can not be null.");
         }
-
-        mContext = context;
-        mAccountName = accountName;
-        mScope = scope;
+        mMainThreadPolicy = policy;
     }
 
     @Override
     public void call(final Subscriber<? super String> subscriber) {
+        if (subscriber.isUnsubscribed()) {
+            return;
+        }
+
+        final int cookie = AuthTrace.beginAsyncSection(TRACE_REQUEST);
+        super.call(cookie != 0 ? new TracedSubscriber(subscriber, cookie) : subscriber);
+    }
+
+    /**
+     * Records the token calls about to block the main thread.
+     *
+     * @return true if the main thread policy moves such a call to the executor.
+     */
+    @Override
+    protected boolean offloadFromMainThread() {
+        final GoogleOAuthTokenMainThreadMonitor monitor =
+                GoogleOAuthTokenMainThreadMonitor.getDefault();
+        if (monitor.isMainThread()) {
+            monitor.record();
+            return mMainThreadPolicy == GoogleOAuthTokenMainThreadPolicy.OFFLOAD;
+        }
+        return false;
+    }
+
+    @Override
+    public String getToken(final long timeout, final TimeUnit unit)
+            throws GoogleAuthException, IOException {
         try {
-            final String accessToken = getToken();
-            subscriber.onNext(accessToken);
-            subscriber.onCompleted();
+            return super.getToken(timeout, unit);
         } catch (IOException e) {
-            // network or server error, the call is expected to succeed if you try again later.
-            // Don't attempt to call again immediately - the request is likely to
-            // fail, you'll hit quotas or back-off.
-            subscriber.onError(e);
-        } catch (UserRecoverableAuthException e) {
-            // Recover
-            subscriber.onError(e);
-        } catch (GoogleAuthException e) {
-            // Failure. The call is not expected to ever succeed so it should not be
-            // retried.
-            subscriber.onError(e);
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            subscriber.onError(e);
+            GooglePlayServices.rethrowAuthError(e);
+            throw new IOException(e);
         }
     }
 
+    @Override
     public String getToken() throws GoogleAuthException, IOException {
-        return GoogleAuthUtil.getToken(mContext, mAccountName, mScope);
+        final AuthFlightRecorder recorder = AuthFlightRecorder.getDefault();
+        final long start = System.nanoTime();
+        recorder.record(AuthFlightRecorder.Event.FETCH_START, 0, getScope());
+        AuthTrace.beginSection(TRACE_GET_TOKEN);
+        try {
+            return GooglePlayServices.getToken(mContext, getAccountName(), getScope());
+        } finally {
+            AuthTrace.endSection();
+            recorder.record(AuthFlightRecorder.Event.FETCH_END, System.nanoTime() - start,
+                    getScope());
+        }
+    }
+
+    /**
+     * Removes the specified token from Google Play services' token cache so that the next call
+     * to getToken() acquires a new one.
+     *
+     * @see com.google.android.gms.auth.GoogleAuthUtil#clearToken(android.content.Context, String)
+     *
+     * @param token the token to clear.
+     */
+    public void clearToken(final String token) throws GoogleAuthException, IOException {
+        GooglePlayServices.clearToken(mContext, token);
+    }
+
+    /**
+     * Forgets the specified token wherever it is known and clears it from Google Play services,
+     * for instance after a server rejected it.
+     *
+     * @param token the rejected token.
+     */
+    void invalidateToken(final String token) throws GoogleAuthException, IOException {
+        getCache().invalidate(token);
+        clearToken(token);
+    }
+
+    /**
+     * Get an instance of this class acquiring tokens for the same account and the specified
+     * scope, sharing this instance's context, cache and configuration.
+     *
+     * @param scope the OAuth token scope.
+     * @return the new instance.
+     */
+    GoogleOAuthTokenOnSubscribe forScope(final String scope) {
+        final GoogleOAuthTokenOnSubscribe onSubscribe =
+                new GoogleOAuthTokenOnSubscribe(mContext, getAccountName(), scope, getCache());
+        onSubscribe.copyConfiguration(this);
+        onSubscribe.mMainThreadPolicy = mMainThreadPolicy;
+        return onSubscribe;
+    }
+
+    /**
+     * Ends the asynchronous trace section begun for a request on its first terminal event or
+     * unsubscription, whichever comes first.
+     */
+    static class TracedSubscriber extends Subscriber<String> implements Action0 {
+
+        private final Subscriber<? super String> mActual;
+
+        private final int mCookie;
+
+        private final AtomicBoolean mEnded = new AtomicBoolean();
+
+        TracedSubscriber(final Subscriber<? super String> actual, final int cookie) {
+            super(actual);
+            mActual = actual;
+            mCookie = cookie;
+            add(Subscriptions.create(this));
+        }
+
+        @Override
+        public void onNext(final String token) {
+            call();
+            mActual.onNext(token);
+        }
+
+        @Override
+        public void onCompleted() {
+            mActual.onCompleted();
+        }
+
+        @Override
+        public void onError(final Throwable e) {
+            call();
+            mActual.onError(e);
+        }
+
+        @Override
+        public void call() {
+            if (mEnded.compareAndSet(false, true)) {
+                endSection(mCookie);
+            }
+        }
+
+        /**
+         * Ends the asynchronous trace section of the request.
+         */
+        void endSection(final int cookie) {
+            AuthTrace.endAsyncSection(TRACE_REQUEST, cookie);
+        }
     }
 }
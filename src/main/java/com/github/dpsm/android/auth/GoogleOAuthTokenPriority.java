@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+/**
+ * The priority of a token request on the GoogleOAuthTokenExecutor.
+ *
+ * @see GoogleOAuthTokenOnSubscribe#setPriority(GoogleOAuthTokenPriority)
+ */
+public enum GoogleOAuthTokenPriority {
+
+    /**
+     * A user is waiting for the token. Served before any background request.
+     */
+    INTERACTIVE,
+
+    /**
+     * The token is prefetched or used by background work. Served once no interactive request
+     * is waiting and not allowed to occupy every executor thread while interactive requests are
+     * queued or running.
+     */
+    BACKGROUND
+}
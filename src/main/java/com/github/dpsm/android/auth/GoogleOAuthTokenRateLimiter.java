@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class limits the rate of token calls made to Google Play Services using token buckets,
+ * one per account plus a global one shared by all accounts, so that bursts of requests do not
+ * run into quota errors.
+ * <br/>
+ * Requests exceeding the rate are either delayed until permits are available or rejected with a
+ * GoogleOAuthTokenRateLimitException depending on the Policy. Delayed requests are scheduled
+ * by the caller and never block a thread while waiting.
+ *
+ * @see GoogleOAuthTokenOnSubscribe#setRateLimiter(GoogleOAuthTokenRateLimiter)
+ */
+public class GoogleOAuthTokenRateLimiter {
+
+    /**
+     * Returned by reserve(..) when a request is rejected.
+     */
+    public static final long REJECTED = -1;
+
+    /**
+     * The policy applied to requests exceeding the rate.
+     */
+    public static enum Policy {
+
+        /**
+         * Requests are delayed until permits are available.
+         */
+        DELAY,
+
+        /**
+         * Requests are rejected right away.
+         */
+        REJECT
+    }
+
+    private final double mAccountPermitsPerSecond;
+
+    private final int mAccountBurst;
+
+    private final Bucket mGlobalBucket;
+
+    private final Policy mPolicy;
+
+    private final Map<String, Bucket> mAccountBuckets = new HashMap<String, Bucket>();
+
+    private long mDelayedCount;
+
+    private long mRejectedCount;
+
+    private long mTotalWaitNanos;
+
+    private long mMaxWaitNanos;
+
+    /**
+     * Creates a rate limiter with the specified limits.
+     *
+     * @param accountPermitsPerSecond the sustained rate of token calls allowed per account.
+     * @param accountBurst the number of token calls an idle account may make at once.
+     * @param globalPermitsPerSecond the sustained rate of token calls allowed for all accounts.
+     * @param globalBurst the number of token calls that may be made at once for all accounts.
+     * @param policy the policy applied to requests exceeding the rate.
+     */
+    public GoogleOAuthTokenRateLimiter(final double accountPermitsPerSecond,
+                                       final int accountBurst,
+                                       final double globalPermitsPerSecond,
+                                       final int globalBurst,
+                                       final Policy policy) {
+        if (accountPermitsPerSecond <= 0 || globalPermitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rates must be positive.");
+        }
+
+        if (accountBurst < 1 || globalBurst < 1) {
+            throw new IllegalArgumentException("Bursts must be positive.");
+        }
+
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy can not be null.");
+        }
+
+        mAccountPermitsPerSecond = accountPermitsPerSecond;
+        mAccountBurst = accountBurst;
+        mGlobalBucket = new Bucket(globalPermitsPerSecond, globalBurst, now());
+        mPolicy = policy;
+    }
+
+    /**
+     * Reserves a permit for a token call on behalf of the specified account.
+     *
+     * @param accountName the account the token call is made for.
+     * @return the delay in nanoseconds the caller must wait before making the call, 0 to make it
+     * right away or REJECTED if the call must not be made.
+     */
+    public synchronized long reserve(final String accountName) {
+        final long now = now();
+        final Bucket account = getBucket(accountName, now);
+        mGlobalBucket.refill(now);
+
+        final long wait = Math.max(account.waitNanos(), mGlobalBucket.waitNanos());
+        if (wait > 0 && mPolicy == Policy.REJECT) {
+            mRejectedCount++;
+            return REJECTED;
+        }
+
+        account.take();
+        mGlobalBucket.take();
+        if (wait > 0) {
+            mDelayedCount++;
+            mTotalWaitNanos += wait;
+            mMaxWaitNanos = Math.max(mMaxWaitNanos, wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Takes a permit for a token call on behalf of the specified account only if available
+     * right away, regardless of the policy.
+     *
+     * @param accountName the account the token call is made for.
+     * @return true if the call can be made, false otherwise.
+     */
+    public synchronized boolean tryAcquire(final String accountName) {
+        final long now = now();
+        final Bucket account = getBucket(accountName, now);
+        mGlobalBucket.refill(now);
+
+        if (account.waitNanos() > 0 || mGlobalBucket.waitNanos() > 0) {
+            return false;
+        }
+        account.take();
+        mGlobalBucket.take();
+        return true;
+    }
+
+    /**
+     * Gives back a permit taken by tryAcquire(..) for a token call that could not be made.
+     *
+     * @see #tryAcquire(String)
+     *
+     * @param accountName the account the permit was taken for.
+     */
+    public synchronized void release(final String accountName) {
+        final long now = now();
+        getBucket(accountName, now).give();
+        mGlobalBucket.refill(now);
+        mGlobalBucket.give();
+    }
+
+    /**
+     * @return the number of requests delayed so far.
+     */
+    public synchronized long getDelayedCount() {
+        return mDelayedCount;
+    }
+
+    /**
+     * @return the number of requests rejected so far.
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * @param unit the unit of the returned value.
+     * @return the time delayed requests waited for in total.
+     */
+    public synchronized long getTotalWait(final TimeUnit unit) {
+        return unit.convert(mTotalWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit the unit of the returned value.
+     * @return the longest time a delayed request waited for.
+     */
+    public synchronized long getMaxWait(final TimeUnit unit) {
+        return unit.convert(mMaxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    long now() {
+        return System.nanoTime();
+    }
+
+    private Bucket getBucket(final String accountName, final long now) {
+        Bucket bucket = mAccountBuckets.get(accountName);
+        if (bucket == null) {
+            bucket = new Bucket(mAccountPermitsPerSecond, mAccountBurst, now);
+            mAccountBuckets.put(accountName, bucket);
+        } else {
+            bucket.refill(now);
+        }
+        return bucket;
+    }
+
+    /**
+     * A token bucket whose permits may go negative, representing calls already reserved ahead
+     * of the rate.
+     */
+    private static final class Bucket {
+
+        private final double mPermitsPerNano;
+
+        private final int mCapacity;
+
+        private double mPermits;
+
+        private long mLastRefill;
+
+        private Bucket(final double permitsPerSecond, final int capacity, final long now) {
+            mPermitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            mCapacity = capacity;
+            mPermits = capacity;
+            mLastRefill = now;
+        }
+
+        private void refill(final long now) {
+            mPermits = Math.min(mCapacity, mPermits + (now - mLastRefill) * mPermitsPerNano);
+            mLastRefill = now;
+        }
+
+        private long waitNanos() {
+            return mPermits >= 1 ? 0 : (long) Math.ceil((1 - mPermits) / mPermitsPerNano);
+        }
+
+        private void take() {
+            mPermits -= 1;
+        }
+
+        private void give() {
+            mPermits = Math.min(mCapacity, mPermits + 1);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+/**
+ * A blocking source of Google OAuth access tokens, such as Google Play services, driven by a
+ * GoogleOAuthTokenEngine.
+ *
+ * @see GoogleOAuthTokenEngine
+ */
+public interface GoogleOAuthTokenSource {
+
+    /**
+     * Acquires a token on the calling thread.
+     *
+     * @return the acquired token.
+     * @throws Exception an IOException if the call may succeed when tried again later, any other
+     * error otherwise.
+     */
+    String getToken() throws Exception;
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.io.IOException;
+
+/**
+ * This exception signals that an access token could not be acquired within the deadline set on
+ * a GoogleOAuthTokenOnSubscribe. Like other network failures, the call is expected to succeed if
+ * attempted again later.
+ *
+ * @see GoogleOAuthTokenOnSubscribe#setTimeout(long, java.util.concurrent.TimeUnit)
+ */
+public class GoogleOAuthTokenTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an instance of this exception.
+     *
+     * @param message the detail message.
+     */
+    public GoogleOAuthTokenTimeoutException(final String message) {
+        super(message);
+    }
+}
@@ -26,8 +26,13 @@ import com.github.dpsm.android.auth.activity.OperatorGoogleAuthenticationActivit
 import com.github.dpsm.android.auth.fragment.OperatorGoogleAuthenticationFragmentController;
 import com.github.dpsm.android.auth.fragment.OperatorGoogleAuthenticationSupportFragmentController;
 
+import com.google.android.gms.auth.GoogleAuthException;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import rx.Observable;
-import rx.android.observables.AndroidObservable;
 
 /**
  * This class implements an Observable that emits access tokens to access the Google APIs under
@@ -35,6 +40,12 @@ import rx.android.observables.AndroidObservable;
  */
 public class GoogleOauthTokenObservable extends Observable<String> {
 
+    private final GoogleOAuthTokenOnSubscribe mOnSubscribe;
+
+    // The last Observable created by a controller for this one, reused while still current.
+    private volatile OperatorGoogleAuthenticationController.AuthenticationOnSubscribe<?>
+            mAuthentication;
+
     /**
      * Creates an instance of a GoogleOauthTokenObservable bound to the specified Context
      * to emit access tokens for the specified account.
@@ -110,7 +121,7 @@ public class GoogleOauthTokenObservable extends Observable<String> {
      */
     public GoogleOauthTokenObservable(final Context context, final String accountName,
                                       final String scope) {
-        super(new GoogleOAuthTokenOnSubscribe(context, accountName, scope));
+        this(new GoogleOAuthTokenOnSubscribe(context, accountName, scope));
     }
 
     /**
@@ -121,6 +132,98 @@ public class GoogleOauthTokenObservable extends Observable<String> {
      */
     public GoogleOauthTokenObservable(final GoogleOAuthTokenOnSubscribe onSubscribe) {
         super(onSubscribe);
+        mOnSubscribe = onSubscribe;
+    }
+
+    /**
+     * Enables the stale-while-revalidate serving mode where the last known token is emitted
+     * right away when acquired within the grace window and refreshed in the background.
+     *
+     * @see GoogleOAuthTokenOnSubscribe#setStaleWhileRevalidate(long, java.util.concurrent.TimeUnit)
+     *
+     * @param grace the maximum age of tokens emitted without waiting, 0 to disable.
+     * @param unit the unit of the grace argument.
+     * @return this Observable.
+     */
+    public GoogleOauthTokenObservable serveStaleWithin(final long grace, final TimeUnit unit) {
+        mOnSubscribe.setStaleWhileRevalidate(grace, unit);
+        return this;
+    }
+
+    /**
+     * Sets the priority of this Observable's token calls, for instance BACKGROUND for prefetch
+     * and sync requests so that they never delay requests a user is waiting for.
+     *
+     * @see GoogleOAuthTokenOnSubscribe#setPriority(GoogleOAuthTokenPriority)
+     *
+     * @param priority the priority of token calls.
+     * @return this Observable.
+     */
+    public GoogleOauthTokenObservable withPriority(final GoogleOAuthTokenPriority priority) {
+        mOnSubscribe.setPriority(priority);
+        return this;
+    }
+
+    /**
+     * @return the target Google account name.
+     */
+    public String getAccountName() {
+        return mOnSubscribe.getAccountName();
+    }
+
+    /**
+     * @return the OAuth token scope.
+     */
+    public String getScope() {
+        return mOnSubscribe.getScope();
+    }
+
+    /**
+     * @return the last token emitted for this Observable's account and scope or null if none
+     * is known.
+     */
+    public String getCachedToken() {
+        return mOnSubscribe.getCachedToken();
+    }
+
+    /**
+     * Get a token on the calling thread without subscribing, sharing this Observable's cache and
+     * the token calls of concurrent callers.
+     *
+     * @see GoogleOAuthTokenOnSubscribe#getToken(long, java.util.concurrent.TimeUnit)
+     *
+     * @param timeout the maximum time to wait, 0 for the default deadline if any.
+     * @param unit the unit of the timeout argument.
+     * @return the token.
+     */
+    public String getToken(final long timeout, final TimeUnit unit)
+            throws GoogleAuthException, IOException {
+        return mOnSubscribe.getToken(timeout, unit);
+    }
+
+    /**
+     * Get a token without subscribing nor blocking the calling thread, sharing this
+     * Observable's cache and the token calls of concurrent callers.
+     *
+     * @see GoogleOAuthTokenOnSubscribe#getTokenAsync()
+     *
+     * @return the Future of the token.
+     */
+    public Future<String> getTokenAsync() {
+        return mOnSubscribe.getTokenAsync();
+    }
+
+    GoogleOAuthTokenOnSubscribe getOnSubscribe() {
+        return mOnSubscribe;
+    }
+
+    OperatorGoogleAuthenticationController.AuthenticationOnSubscribe<?> getAuthentication() {
+        return mAuthentication;
+    }
+
+    void setAuthentication(
+            final OperatorGoogleAuthenticationController.AuthenticationOnSubscribe<?> onSubscribe) {
+        mAuthentication = onSubscribe;
     }
 
     /**
@@ -139,8 +242,8 @@ public class GoogleOauthTokenObservable extends Observable<String> {
             throw new IllegalArgumentException("Activity can not be null.");
         }
 
-        return AndroidObservable.bindActivity(activity, this)
-                .lift(new OperatorGoogleAuthenticationActivityController(activity, requestCodeBase));
+        return authenticateUsing(
+                new OperatorGoogleAuthenticationActivityController(activity, requestCodeBase));
     }
 
     /**
@@ -159,8 +262,8 @@ public class GoogleOauthTokenObservable extends Observable<String> {
             throw new IllegalArgumentException("Fragment can not be null.");
         }
 
-        return AndroidObservable.bindFragment(fragment, this)
-                .lift(new OperatorGoogleAuthenticationFragmentController(fragment, requestCodeBase));
+        return authenticateUsing(
+                new OperatorGoogleAuthenticationFragmentController(fragment, requestCodeBase));
     }
 
     /**
@@ -180,8 +283,30 @@ public class GoogleOauthTokenObservable extends Observable<String> {
             throw new IllegalArgumentException("Support fragment can not be null.");
         }
 
-        return AndroidObservable.bindFragment(fragment, this)
-                .lift(new OperatorGoogleAuthenticationSupportFragmentController(fragment,
-                        requestCodeBase));
+        return authenticateUsing(new OperatorGoogleAuthenticationSupportFragmentController(
+                fragment, requestCodeBase));
+    }
+
+    /**
+     * Authenticates the user when needed using the specified controller. Components should create
+     * a single controller and reuse it for every call, as the Observable returned for a given
+     * controller is reused and a fresh token already known is delivered through it without a
+     * token call.
+     * The same controller must receive the component's Activity results.
+     *
+     * @see OperatorGoogleAuthenticationController#handleActivityResult
+     *
+     * @param controller the controller bound to the component launching authentication
+     *                   Activities.
+     * @return an Observable which will launch an authentication Activity through the specified
+     * controller when user authentication is required.
+     */
+    public Observable<String> authenticateUsing(
+            final OperatorGoogleAuthenticationController<?> controller) {
+        if (controller == null) {
+            throw new IllegalArgumentException("Controller can not be null.");
+        }
+
+        return controller.authenticate(this);
     }
 }
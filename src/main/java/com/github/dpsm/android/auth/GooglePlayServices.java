@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.Intent;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.GoogleAuthUtil;
+import com.google.android.gms.auth.GooglePlayServicesAvailabilityException;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+import com.google.android.gms.common.GooglePlayServicesUtil;
+
+import java.io.IOException;
+
+/**
+ * This class is the only one in this package referring to Google Play services types. Other
+ * classes call its static methods so that the Google Play services classes are loaded and
+ * verified on the first token call or authentication error rather than while the application
+ * creates its observables and controllers on startup.
+ * <br/>
+ * Callers must not catch, cast to or declare fields of Google Play services types: the
+ * verifier loads those when loading the caller.
+ */
+final class GooglePlayServices {
+
+    private GooglePlayServices() {
+    }
+
+    static String getToken(final Context context, final String accountName, final String scope)
+            throws GoogleAuthException, IOException {
+        return GoogleAuthUtil.getToken(context, accountName, scope);
+    }
+
+    static void clearToken(final Context context, final String token)
+            throws GoogleAuthException, IOException {
+        GoogleAuthUtil.clearToken(context, token);
+    }
+
+    /**
+     * Throws the specified error if it is a GoogleAuthException, returns otherwise.
+     */
+    static void rethrowAuthError(final Throwable throwable) throws GoogleAuthException {
+        if (throwable instanceof GoogleAuthException) {
+            throw (GoogleAuthException) throwable;
+        }
+    }
+
+    /**
+     * @return true if the user can resolve the specified error from an authentication screen.
+     */
+    static boolean isUserRecoverable(final Throwable throwable) {
+        return throwable instanceof UserRecoverableAuthException;
+    }
+
+    /**
+     * @return true if the specified error is about Google Play services being missing, disabled
+     * or out of date.
+     */
+    static boolean isAvailabilityError(final Throwable throwable) {
+        return throwable instanceof GooglePlayServicesAvailabilityException;
+    }
+
+    /**
+     * @return the Intent launching the authentication screen resolving the specified error or
+     * null if it is not user recoverable.
+     */
+    static Intent getRecoveryIntent(final Throwable throwable) {
+        return throwable instanceof UserRecoverableAuthException
+                ? ((UserRecoverableAuthException) throwable).getIntent() : null;
+    }
+
+    /**
+     * @return the dialog letting users install, enable or update Google Play services.
+     *
+     * @see #isAvailabilityError(Throwable)
+     */
+    static Dialog getErrorDialog(final Throwable throwable,
+                                 final Activity activity,
+                                 final int requestCode) {
+        final int statusCode = ((GooglePlayServicesAvailabilityException) throwable)
+                .getConnectionStatusCode();
+        return GooglePlayServicesUtil.getErrorDialog(statusCode, activity, requestCode);
+    }
+}
@@ -17,14 +17,28 @@ package com.github.dpsm.android.auth;
 
 import android.app.Activity;
 import android.app.Dialog;
+import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
 
-import com.google.android.gms.auth.GooglePlayServicesAvailabilityException;
-import com.google.android.gms.auth.UserRecoverableAuthException;
-import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.github.dpsm.android.diagnostics.AuthFlightRecorder;
+import com.github.dpsm.android.diagnostics.AuthTrace;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
 
 /**
  * This abstract class implements an Observable.Operator that launches an authentication screen
@@ -36,6 +50,10 @@ import rx.Subscriber;
  * component such as an Activity or Fragment.
  * <br/>
  * Concrete subclasses of this class target the respective components mentioned earlier.
+ * <br/>
+ * Tokens and errors may be delivered on any thread while Activity results and instance state
+ * are handled on the main thread. The state shared between them is published atomically, and
+ * unsubscribing stops both the upstream fetch and any further delivery.
  *
  * @see com.github.dpsm.android.auth.GoogleOauthTokenObservable
  * @see com.github.dpsm.android.auth.activity.OperatorGoogleAuthenticationActivityController
@@ -71,9 +89,40 @@ public abstract class OperatorGoogleAuthenticationController<T>
         void onRetryAuthentication();
     }
 
+    private static final String KEY_PENDING_ACCOUNT_NAME =
+            OperatorGoogleAuthenticationController.class.getName() + ".PENDING_ACCOUNT_NAME_";
+
+    private static final String KEY_PENDING_SCOPE =
+            OperatorGoogleAuthenticationController.class.getName() + ".PENDING_SCOPE_";
+
+    private static final String TRACE_SHOW_ERROR_DIALOG = "GoogleAuthentication#showErrorDialog";
+
+    private static final String TRACE_START_RECOVERY = "GoogleAuthentication#startRecovery";
+
+    private static final String TRACE_RECOVERY = "GoogleAuthentication#recovery";
+
     private final int REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR;
 
-    private final T mAndroidComponent;
+    private final WeakReference<T> mAndroidComponent;
+
+    // Bumped whenever the observables returned by authenticate(..) must be created again.
+    private final AtomicInteger mBindingGeneration = new AtomicInteger();
+
+    private volatile boolean mFrameCoalesced;
+
+    private final AtomicReference<PendingRequest> mPendingRequest =
+            new AtomicReference<PendingRequest>();
+
+    private final AtomicInteger mRecoveryTraceCookie = new AtomicInteger();
+
+    private volatile long mConsentWindowMillis;
+
+    private volatile Scheduler mConsentScheduler = Schedulers.io();
+
+    private volatile Scheduler mMainScheduler = AndroidSchedulers.mainThread();
+
+    // Guarded by this.
+    private ConsentBatch mConsentBatch;
 
     /**
      * Creates an instance of this class bound to the specified Android component ans starts the
@@ -92,13 +141,84 @@ public abstract class OperatorGoogleAuthenticationController<T>
             throw new IllegalArgumentException(androidComponent.getClass() + " must implement "
                     + GoogleAuthenticationListener.class.getName());
         }
-        mAndroidComponent = androidComponent;
+        // Fetches in flight must not keep a destroyed component from being collected.
+        mAndroidComponent = new WeakReference<T>(androidComponent);
         REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR = requestCodeBase + 1;
     }
 
     @Override
     public Subscriber<? super String> call(final Subscriber<? super String> subscriber) {
-        return new ActivityDispatchSubscriber<T>(this, subscriber);
+        return new ActivityDispatchSubscriber<T>(this, subscriber, null, null);
+    }
+
+    /**
+     * Get an Observable that emits tokens from the specified source, launching authentication
+     * screens within this controller's Android component when needed. The returned Observable is
+     * created once per source and controller and reused afterwards. A fresh token already known
+     * to the source is delivered without fetching, subject to the same component checks as
+     * fetched ones: right away when subscribed on the main thread, through bind(..) otherwise.
+     *
+     * @param source the source Observable of access tokens.
+     * @return the Observable bound to this controller's Android component.
+     */
+    Observable<String> authenticate(final GoogleOauthTokenObservable source) {
+        final int generation = mBindingGeneration.get();
+        AuthenticationOnSubscribe<?> authentication = source.getAuthentication();
+        if (authentication == null || authentication.mController != this
+                || authentication.mGeneration != generation) {
+            authentication = new AuthenticationOnSubscribe<T>(this, source, generation);
+            source.setAuthentication(authentication);
+        }
+        return authentication.mObservable;
+    }
+
+    /**
+     * Enables frame coalesced delivery. Tokens, errors and listener callbacks of the observables
+     * returned from then on are delivered on the main thread through the default
+     * GoogleOAuthTokenFrameScheduler, batching completions into one main thread message per
+     * frame instead of one message each.
+     *
+     * @param enabled true to batch deliveries, false to deliver each through bind(..).
+     */
+    public void setFrameCoalescedDelivery(final boolean enabled) {
+        mFrameCoalesced = enabled;
+        mBindingGeneration.incrementAndGet();
+    }
+
+    /**
+     * Asks the user once for the scopes of all the requests for the same account failing for
+     * want of consent within the specified window, instead of once per scope. The first such
+     * failure opens the window, the authentication screen is then launched for the combined
+     * scopes and, once the user accepts, the tokens of every waiting request are fetched in
+     * parallel and delivered to their subscribers without calling
+     * GoogleAuthenticationListener.onRetryAuthentication(). Only requests obtained through
+     * GoogleOauthTokenObservable.authenticateUsing(..) for OAuth 2.0 scopes are batched.
+     *
+     * @param window the time to wait for other failing requests, 0 to disable batching which is
+     *               the default.
+     * @param unit the window's time unit.
+     */
+    public void setConsentBatchWindow(final long window, final TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Consent batch window can not be negative.");
+        }
+
+        if (unit == null) {
+            throw new IllegalArgumentException("TimeUnit can not be null.");
+        }
+        mConsentWindowMillis = unit.toMillis(window);
+    }
+
+    /**
+     * Replaces the schedulers batched consent waits and fetches on, and the one it launches the
+     * authentication screen on.
+     *
+     * @param background the scheduler to wait, resolve the combined consent and fetch on.
+     * @param main the scheduler to launch the authentication screen on.
+     */
+    void setConsentSchedulers(final Scheduler background, final Scheduler main) {
+        mConsentScheduler = background;
+        mMainScheduler = main;
     }
 
     /**
@@ -115,15 +235,288 @@ public abstract class OperatorGoogleAuthenticationController<T>
     public boolean handleActivityResult(final int requestCode, final int resultCode,
                                         final Intent data) {
         if (requestCode == REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR) {
+            endRecoveryTrace();
+            AuthFlightRecorder.getDefault().record(AuthFlightRecorder.Event.ACTIVITY_RESULT,
+                    resultCode, null);
+            final ConsentBatch batch = takeLaunchedConsentBatch();
             if (resultCode == Activity.RESULT_OK) {
                 // Receiving a result that follows a GoogleAuthException, try auth again
-                asListener(mAndroidComponent).onRetryAuthentication();
+                final GoogleAuthenticationListener listener = getListener();
+                if (listener != null && (batch == null || !resumeConsentBatch(batch))) {
+                    listener.onRetryAuthentication();
+                }
+            } else {
+                // The user gave up, there is nothing left to resume.
+                setPendingRequest(null, null);
             }
             return true;
         }
         return false;
     }
 
+    /**
+     * Adds the specified subscriber, waiting for the user to consent to its source's scope, to
+     * the current consent batch or starts a new one.
+     *
+     * @return false if the subscriber can not be batched and must launch its own recovery.
+     */
+    private boolean requestConsent(final Subscriber<? super String> subscriber,
+                                   final GoogleOauthTokenObservable source,
+                                   final Throwable throwable) {
+        final long windowMillis = mConsentWindowMillis;
+        if (source == null || windowMillis <= 0
+                || GoogleOAuthScopes.parse(source.getScope()) == null) {
+            return false;
+        }
+
+        final ConsentBatch batch;
+        synchronized (this) {
+            if (mConsentBatch != null) {
+                if (!mConsentBatch.mAccountName.equals(source.getAccountName())) {
+                    return false;
+                }
+                // Resumed along with the others once the user is back.
+                mConsentBatch.add(subscriber, source);
+                return true;
+            }
+            batch = new ConsentBatch(source.getAccountName(), throwable);
+            batch.add(subscriber, source);
+            mConsentBatch = batch;
+        }
+
+        final Scheduler.Worker worker = mConsentScheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    launchConsentBatch(batch);
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Resolves the authentication screen for the combined scopes of the specified batch off the
+     * main thread, then launches it on the main thread.
+     */
+    private void launchConsentBatch(final ConsentBatch batch) {
+        final GoogleOauthTokenObservable first;
+        final String scope;
+        final boolean singleScope;
+        synchronized (this) {
+            // Requests failing from now on wait for the user without adding their scopes.
+            batch.mLaunched = true;
+            first = batch.mWaiting.get(0).mSource;
+            scope = GoogleOAuthScopes.union(batch.mScopes);
+            singleScope = batch.mScopes.size() == 1;
+        }
+
+        final Throwable firstError = batch.mError;
+        Intent intent = null;
+        if (singleScope) {
+            // Its own authentication screen will do.
+            intent = GooglePlayServices.getRecoveryIntent(firstError);
+        } else {
+            try {
+                // Already granted, nobody needs to ask the user anymore. Subject to the
+                // source's timeout, executor and rate limiter like its own calls.
+                first.getOnSubscribe().forScope(scope).getToken(0, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                intent = GooglePlayServices.isUserRecoverable(e)
+                        ? GooglePlayServices.getRecoveryIntent(e)
+                        : GooglePlayServices.getRecoveryIntent(firstError);
+            }
+        }
+
+        final Intent consentIntent = intent;
+        final Scheduler.Worker worker = mMainScheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    final T androidComponent = getAndroidComponent();
+                    if (consentIntent == null || androidComponent == null) {
+                        final ConsentBatch launched = takeLaunchedConsentBatch();
+                        if (consentIntent == null && launched != null) {
+                            resumeConsentBatch(launched);
+                        }
+                        return;
+                    }
+
+                    AuthTrace.beginSection(TRACE_START_RECOVERY);
+                    try {
+                        startActivityForResult(androidComponent, consentIntent,
+                                REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
+                    } finally {
+                        AuthTrace.endSection();
+                    }
+                    beginRecoveryTrace(firstError);
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+
+    private synchronized ConsentBatch takeLaunchedConsentBatch() {
+        final ConsentBatch batch = mConsentBatch;
+        if (batch == null || !batch.mLaunched) {
+            return null;
+        }
+        mConsentBatch = null;
+        return batch;
+    }
+
+    /**
+     * Fetches the tokens of the subscribers of the specified batch still waiting, in parallel.
+     *
+     * @return true if at least one subscriber was resumed, false otherwise.
+     */
+    private boolean resumeConsentBatch(final ConsentBatch batch) {
+        final T androidComponent = getAndroidComponent();
+        if (androidComponent == null) {
+            return false;
+        }
+
+        boolean resumed = false;
+        for (final ConsentBatch.Waiting waiting : batch.mWaiting) {
+            if (!waiting.mSubscriber.isUnsubscribed()) {
+                deliver(androidComponent, waiting.mSource.subscribeOn(mConsentScheduler))
+                        .lift(new AliveBinding<T>(this))
+                        .unsafeSubscribe(waiting.mSubscriber);
+                resumed = true;
+            }
+        }
+        return resumed;
+    }
+
+    /**
+     * @return the specified source bound to the specified component as configured.
+     */
+    private Observable<String> deliver(final T androidComponent, final Observable<String> source) {
+        if (mFrameCoalesced) {
+            return source.observeOn(GoogleOAuthTokenFrameScheduler.getDefault());
+        }
+        return bind(androidComponent, source);
+    }
+
+    private void beginRecoveryTrace(final Throwable throwable) {
+        AuthFlightRecorder.getDefault().record(AuthFlightRecorder.Event.RECOVERY_LAUNCHED,
+                REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR, throwable.getClass());
+        AuthTrace.endAsyncSection(TRACE_RECOVERY,
+                mRecoveryTraceCookie.getAndSet(AuthTrace.beginAsyncSection(TRACE_RECOVERY)));
+    }
+
+    private void endRecoveryTrace() {
+        AuthTrace.endAsyncSection(TRACE_RECOVERY, mRecoveryTraceCookie.getAndSet(0));
+    }
+
+    /**
+     * Saves the request pending on an authentication screen, if any, into the specified Bundle
+     * so that it can be resumed when the process is killed while the screen is shown. The
+     * bound component must call this method from its onSaveInstanceState(..).
+     *
+     * @see android.app.Activity#onSaveInstanceState(android.os.Bundle)
+     * @see #restoreInstanceState(android.os.Bundle)
+     *
+     * @param outState the Bundle to save the state into.
+     */
+    public void saveInstanceState(final Bundle outState) {
+        if (outState == null) {
+            throw new IllegalArgumentException("Bundle can not be null.");
+        }
+
+        final PendingRequest pending = mPendingRequest.get();
+        if (pending != null) {
+            outState.putString(getStateKey(KEY_PENDING_ACCOUNT_NAME), pending.mAccountName);
+            outState.putString(getStateKey(KEY_PENDING_SCOPE), pending.mScope);
+        }
+    }
+
+    /**
+     * Restores the request pending on an authentication screen from the specified Bundle. The
+     * bound component must call this method from its onCreate(..) before forwarding Activity
+     * results.
+     *
+     * @see #saveInstanceState(android.os.Bundle)
+     *
+     * @param savedInstanceState the Bundle previously passed to saveInstanceState(..) or null.
+     */
+    public void restoreInstanceState(final Bundle savedInstanceState) {
+        if (savedInstanceState != null) {
+            setPendingRequest(savedInstanceState.getString(getStateKey(KEY_PENDING_ACCOUNT_NAME)),
+                    savedInstanceState.getString(getStateKey(KEY_PENDING_SCOPE)));
+        }
+    }
+
+    /**
+     * Get an Observable resuming the request that was pending on an authentication screen, for
+     * instance from GoogleAuthenticationListener.onRetryAuthentication() after the process was
+     * killed while the screen was shown. The pending request is known when the failed token
+     * request was obtained through GoogleOauthTokenObservable.authenticateUsing(..).
+     *
+     * @param context the context to use to interact with the Android system.
+     * @return the Observable for the pending account and scope or null if none is pending.
+     */
+    public GoogleOauthTokenObservable getPendingRequest(final Context context) {
+        final PendingRequest pending = mPendingRequest.get();
+        if (pending == null) {
+            return null;
+        }
+        return GoogleOauthTokenObservable.create(context, pending.mAccountName, pending.mScope);
+    }
+
+    /**
+     * @return the Android component bound to this controller or null if it was collected.
+     */
+    protected final T getAndroidComponent() {
+        return mAndroidComponent.get();
+    }
+
+    private GoogleAuthenticationListener getListener() {
+        return (GoogleAuthenticationListener) mAndroidComponent.get();
+    }
+
+    /**
+     * Delivers the specified token of the specified source, or null if unknown, to the listener
+     * and the specified subscriber. Only the pending request of a known source is cleared.
+     */
+    private void dispatchToken(final GoogleOauthTokenObservable source,
+                               final Subscriber<? super String> subscriber, final String token) {
+        if (source != null) {
+            clearPendingRequest(source.getAccountName(), source.getScope());
+        }
+        final GoogleAuthenticationListener listener = getListener();
+        if (listener != null && !subscriber.isUnsubscribed()) {
+            listener.onAuthenticationSucceeded(token);
+            subscriber.onNext(token);
+        }
+    }
+
+    private void setPendingRequest(final String accountName, final String scope) {
+        mPendingRequest.set(accountName != null && scope != null
+                ? new PendingRequest(accountName, scope) : null);
+    }
+
+    /**
+     * Clears the pending request if it is the one for the specified account and scope, the
+     * request of another source may still be waiting for the user.
+     */
+    private void clearPendingRequest(final String accountName, final String scope) {
+        final PendingRequest pending = mPendingRequest.get();
+        if (pending != null && pending.mAccountName.equals(accountName)
+                && pending.mScope.equals(scope)) {
+            mPendingRequest.compareAndSet(pending, null);
+        }
+    }
+
+    private String getStateKey(final String key) {
+        return key + REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR;
+    }
+
     /**
      * Concrete subclasses implement this method in order to launch authentication activities
      * within the component's scope.
@@ -139,6 +532,45 @@ public abstract class OperatorGoogleAuthenticationController<T>
                                                    final Intent intent,
                                                    final int requestCode);
 
+    /**
+     * Concrete subclasses override this method in order to deliver the specified source
+     * Observable on the component's thread. Implementations must not capture the component:
+     * deliveries are dropped once it is no longer alive.
+     *
+     * @see #isAlive(Object)
+     *
+     * @param androidComponent the Android component to bind to.
+     * @param source the source Observable of access tokens.
+     * @return the bound Observable.
+     */
+    protected Observable<String> bind(final T androidComponent, final Observable<String> source) {
+        return source;
+    }
+
+    /**
+     * Concrete subclasses override this method in order to tell whether the specified component
+     * can still receive tokens. Tokens for collected components are always dropped, their
+     * subscribers still receive the terminal events.
+     *
+     * @param androidComponent the Android component to deliver to.
+     * @return true if deliveries may proceed, false to drop them.
+     */
+    protected boolean isAlive(final T androidComponent) {
+        return true;
+    }
+
+    /**
+     * Concrete subclasses override this method in order to provide fetches retained across
+     * recreations of the specified component, such as configuration changes. Fetches started
+     * by a destroyed component then keep running and are re-attached to its replacement.
+     *
+     * @param androidComponent the Android component to retain fetches for.
+     * @return the retained fetches or null if fetches can not be retained.
+     */
+    protected RetainedTokenFetches getRetainedFetches(final T androidComponent) {
+        return null;
+    }
+
     /**
      * Get the Activity bound to the specified Android component.
      *
@@ -153,14 +585,26 @@ public abstract class OperatorGoogleAuthenticationController<T>
 
         private final Subscriber<? super String> mChild;
 
+        // The source of the delivered tokens or null if unknown.
+        private final GoogleOauthTokenObservable mSource;
+
+        // Where the source's fetch is retained or null if it is not.
+        private final RetainedTokenFetches mRetained;
+
         private ActivityDispatchSubscriber(final OperatorGoogleAuthenticationController<T> controller,
-                                           final Subscriber<? super String> subscriber) {
+                                           final Subscriber<? super String> subscriber,
+                                           final GoogleOauthTokenObservable source,
+                                           final RetainedTokenFetches retained) {
+            // Unsubscribing the child must stop the fetch and any delivery racing with it.
+            super(subscriber);
             if (controller == null) {
                 throw new IllegalArgumentException("OperatorGoogleAuthenticationController can not" +
                         "be null.");
             }
             mController = controller;
             mChild = subscriber;
+            mSource = source;
+            mRetained = retained;
         }
 
         @Override
@@ -170,39 +614,299 @@ public abstract class OperatorGoogleAuthenticationController<T>
 
         @Override
         public void onError(final Throwable throwable) {
-            final T androidComponent = mController.mAndroidComponent;
-            if (throwable instanceof GooglePlayServicesAvailabilityException) {
+            // The component received the error, a recreated one must not receive it again.
+            if (mRetained != null) {
+                mRetained.release(getRetainedKey(mSource));
+            }
+
+            if (isUnsubscribed()) {
+                // Nobody waits for a token anymore, do not prompt the user.
+                return;
+            }
+
+            final T androidComponent = mController.getAndroidComponent();
+            if (androidComponent == null) {
+                // Nobody is left to show the error to, still terminate the subscriber.
+                mChild.onError(throwable);
+                return;
+            }
+
+            if (mSource != null && GooglePlayServices.isUserRecoverable(throwable)) {
+                // Remember what to resume once the user is back from the authentication screen.
+                mController.setPendingRequest(mSource.getAccountName(), mSource.getScope());
+            }
+
+            if (GooglePlayServices.isAvailabilityError(throwable)) {
                 // The Google Play services APK is old, disabled, or not present.
                 // Show a dialog created by Google Play services that allows
                 // the user to update the APK
-                int statusCode = ((GooglePlayServicesAvailabilityException) throwable)
-                        .getConnectionStatusCode();
-                final Dialog dialog = GooglePlayServicesUtil.getErrorDialog(statusCode,
-                        mController.getActivity(androidComponent),
-                        mController.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
-                dialog.show();
-            } else if (throwable instanceof UserRecoverableAuthException) {
+                AuthTrace.beginSection(TRACE_SHOW_ERROR_DIALOG);
+                try {
+                    final Dialog dialog = GooglePlayServices.getErrorDialog(throwable,
+                            mController.getActivity(androidComponent),
+                            mController.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
+                    dialog.show();
+                } finally {
+                    AuthTrace.endSection();
+                }
+                mController.beginRecoveryTrace(throwable);
+            } else if (GooglePlayServices.isUserRecoverable(throwable)) {
                 // Unable to authenticate, such as when the user has not yet granted
                 // the app access to the account, but the user can fix this.
                 // Forward the user to an activity in Google Play services.
-                Intent intent = ((UserRecoverableAuthException) throwable).getIntent();
-                mController.startActivityForResult(mController.mAndroidComponent,
-                        intent,
-                        mController.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
+                if (mController.requestConsent(this, mSource, throwable)) {
+                    // Asked along with the other scopes waiting for the user.
+                    return;
+                }
+                AuthTrace.beginSection(TRACE_START_RECOVERY);
+                try {
+                    mController.startActivityForResult(androidComponent,
+                            GooglePlayServices.getRecoveryIntent(throwable),
+                            mController.REQUEST_CODE_RECOVER_FROM_PLAY_SERVICES_ERROR);
+                } finally {
+                    AuthTrace.endSection();
+                }
+                mController.beginRecoveryTrace(throwable);
             } else {
-                mController.asListener(mController.mAndroidComponent).onAuthenticationError(throwable);
+                ((GoogleAuthenticationListener) androidComponent).onAuthenticationError(throwable);
                 mChild.onError(throwable);
             }
         }
 
         @Override
         public void onNext(final String token) {
-            mController.asListener(mController.mAndroidComponent).onAuthenticationSucceeded(token);
-            mChild.onNext(token);
+            mController.dispatchToken(mSource, mChild, token);
+        }
+    }
+
+    /**
+     * @return the key the fetch of the specified source is retained under.
+     */
+    private static String getRetainedKey(final GoogleOauthTokenObservable source) {
+        return source.getAccountName() + '\n' + source.getScope();
+    }
+
+    /**
+     * The account and scope awaiting the user on an authentication screen, published as one.
+     */
+    private static final class PendingRequest {
+
+        private final String mAccountName;
+
+        private final String mScope;
+
+        private PendingRequest(final String accountName, final String scope) {
+            mAccountName = accountName;
+            mScope = scope;
+        }
+    }
+
+    /**
+     * The requests of one account waiting for the user to consent to their scopes.
+     */
+    private static final class ConsentBatch {
+
+        private final String mAccountName;
+
+        // The first failure, its authentication screen is used when a single scope is waiting.
+        private final Throwable mError;
+
+        private final Set<String> mScopes = new LinkedHashSet<String>();
+
+        private final List<Waiting> mWaiting = new ArrayList<Waiting>();
+
+        private boolean mLaunched;
+
+        private ConsentBatch(final String accountName, final Throwable error) {
+            mAccountName = accountName;
+            mError = error;
+        }
+
+        private void add(final Subscriber<? super String> subscriber,
+                         final GoogleOauthTokenObservable source) {
+            if (!mLaunched) {
+                mScopes.add(GoogleOAuthScopes.normalize(source.getScope()));
+            }
+            mWaiting.add(new Waiting(subscriber, source));
+        }
+
+        private static final class Waiting {
+
+            private final Subscriber<? super String> mSubscriber;
+
+            private final GoogleOauthTokenObservable mSource;
+
+            private Waiting(final Subscriber<? super String> subscriber,
+                            final GoogleOauthTokenObservable source) {
+                mSubscriber = subscriber;
+                mSource = source;
+            }
         }
     }
 
-    private GoogleAuthenticationListener asListener(final T mAndroidComponent) {
-        return (GoogleAuthenticationListener) mAndroidComponent;
+    /**
+     * Emits the token known to the source while it is fresh, fetching one otherwise. On the main
+     * thread a fresh token is handed to the component right away, without allocating anything per
+     * call, any other request goes through the whole delivery chain.
+     */
+    static final class AuthenticationOnSubscribe<T> implements Observable.OnSubscribe<String> {
+
+        private final OperatorGoogleAuthenticationController<T> mController;
+
+        private final int mGeneration;
+
+        private final GoogleOauthTokenObservable mSource;
+
+        private final Observable<String> mChain;
+
+        private final Observable<String> mObservable;
+
+        private AuthenticationOnSubscribe(
+                final OperatorGoogleAuthenticationController<T> controller,
+                final GoogleOauthTokenObservable source, final int generation) {
+            final T androidComponent = controller.getAndroidComponent();
+            mController = controller;
+            mGeneration = generation;
+            mSource = source;
+            final RetainedTokenFetches retained = androidComponent != null
+                    ? controller.getRetainedFetches(androidComponent) : null;
+            final Observable<String> fetch = retained != null
+                    ? retained.retaining(getRetainedKey(source), source) : source;
+            final Observable<String> known = Observable.create(new KnownToken(source, fetch));
+            // Nothing is left to bind to, subscribers only receive terminal events below anyway.
+            final Observable<String> bound = androidComponent != null
+                    ? controller.deliver(androidComponent, known) : known;
+            mChain = bound.lift(new AliveBinding<T>(controller))
+                    .lift(new SourceDispatch<T>(controller, source, retained));
+            mObservable = Observable.create(this);
+        }
+
+        @Override
+        public void call(final Subscriber<? super String> subscriber) {
+            final String token = mSource.getCachedToken();
+            if (token == null || !GoogleOAuthTokenMainThreadMonitor.getDefault().isMainThread()) {
+                mChain.unsafeSubscribe(subscriber);
+                return;
+            }
+
+            // Already on the component's thread, the same checks as AliveBinding apply.
+            final T androidComponent = mController.getAndroidComponent();
+            if (androidComponent != null && !mController.isAlive(androidComponent)) {
+                subscriber.unsubscribe();
+                return;
+            }
+
+            if (androidComponent != null) {
+                mController.dispatchToken(mSource, subscriber, token);
+            }
+
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * Emits the token known to the source while it is fresh, subscribing to its fetch otherwise.
+     */
+    private static final class KnownToken implements Observable.OnSubscribe<String> {
+
+        private final GoogleOauthTokenObservable mSource;
+
+        private final Observable<String> mFetch;
+
+        private KnownToken(final GoogleOauthTokenObservable source,
+                           final Observable<String> fetch) {
+            mSource = source;
+            mFetch = fetch;
+        }
+
+        @Override
+        public void call(final Subscriber<? super String> subscriber) {
+            final String token = mSource.getCachedToken();
+            if (token == null) {
+                mFetch.unsafeSubscribe(subscriber);
+            } else if (!subscriber.isUnsubscribed()) {
+                subscriber.onNext(token);
+                subscriber.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * Dispatches like the controller itself, knowing the source so that requests failing for
+     * want of consent can be batched and resumed.
+     */
+    private static final class SourceDispatch<T> implements Observable.Operator<String, String> {
+
+        private final OperatorGoogleAuthenticationController<T> mController;
+
+        private final GoogleOauthTokenObservable mSource;
+
+        private final RetainedTokenFetches mRetained;
+
+        private SourceDispatch(final OperatorGoogleAuthenticationController<T> controller,
+                               final GoogleOauthTokenObservable source,
+                               final RetainedTokenFetches retained) {
+            mController = controller;
+            mSource = source;
+            mRetained = retained;
+        }
+
+        @Override
+        public Subscriber<? super String> call(final Subscriber<? super String> child) {
+            return new ActivityDispatchSubscriber<T>(mController, child, mSource, mRetained);
+        }
+    }
+
+    /**
+     * Drops deliveries and unsubscribes from the source once the component is no longer alive,
+     * without holding the component itself. Once it was collected, tokens are dropped and
+     * terminal events still reach the subscriber like on the controller's own path.
+     */
+    private static final class AliveBinding<T> implements Observable.Operator<String, String> {
+
+        private final OperatorGoogleAuthenticationController<T> mController;
+
+        private AliveBinding(final OperatorGoogleAuthenticationController<T> controller) {
+            mController = controller;
+        }
+
+        @Override
+        public Subscriber<? super String> call(final Subscriber<? super String> child) {
+            return new Subscriber<String>(child) {
+                @Override
+                public void onCompleted() {
+                    final T androidComponent = mController.getAndroidComponent();
+                    if (androidComponent == null || isAlive(androidComponent)) {
+                        child.onCompleted();
+                    }
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    final T androidComponent = mController.getAndroidComponent();
+                    if (androidComponent == null || isAlive(androidComponent)) {
+                        child.onError(throwable);
+                    }
+                }
+
+                @Override
+                public void onNext(final String token) {
+                    final T androidComponent = mController.getAndroidComponent();
+                    if (androidComponent != null && isAlive(androidComponent)) {
+                        child.onNext(token);
+                    }
+                }
+
+                private boolean isAlive(final T androidComponent) {
+                    if (mController.isAlive(androidComponent)) {
+                        return true;
+                    }
+                    unsubscribe();
+                    return false;
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+
+/**
+ * This class keeps token fetches running while the Android component that started them is
+ * recreated, for instance across a configuration change. Instances are meant to outlive
+ * components through a retained holder such as a headless retained Fragment.
+ * <br/>
+ * A fetch is shared by every subscriber using the same key until it terminates. Successful
+ * fetches are forgotten on completion since their tokens are kept by the GoogleOAuthTokenCache,
+ * while failed fetches are kept so that a recreated component still receives the error, for
+ * instance to launch a recovery screen, until released.
+ *
+ * @see com.github.dpsm.android.auth.fragment.RetainedTokenFetchesFragment
+ * @see com.github.dpsm.android.auth.fragment.RetainedTokenFetchesSupportFragment
+ */
+public class RetainedTokenFetches {
+
+    private final Map<String, Observable<String>> mFetches =
+            new HashMap<String, Observable<String>>();
+
+    /**
+     * Get an Observable that attaches subscribers to the retained fetch for the specified key,
+     * subscribing to the source to start one when none is retained.
+     *
+     * @param key the key identifying the fetch, such as the account and scope pair.
+     * @param source the source Observable of access tokens.
+     * @return the Observable attaching subscribers to the retained fetch.
+     */
+    public Observable<String> retaining(final String key, final Observable<String> source) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key can not be null.");
+        }
+
+        if (source == null) {
+            throw new IllegalArgumentException("Source can not be null.");
+        }
+
+        return Observable.create(new Observable.OnSubscribe<String>() {
+            @Override
+            public void call(final Subscriber<? super String> subscriber) {
+                getOrStart(key, source).unsafeSubscribe(subscriber);
+            }
+        });
+    }
+
+    /**
+     * Forgets the fetch retained for the specified key.
+     *
+     * @param key the key identifying the fetch.
+     * @return true if a fetch was retained, false otherwise.
+     */
+    public synchronized boolean release(final String key) {
+        return mFetches.remove(key) != null;
+    }
+
+    /**
+     * @return true if a fetch is retained for the specified key, false otherwise.
+     */
+    public synchronized boolean isRetained(final String key) {
+        return mFetches.containsKey(key);
+    }
+
+    /**
+     * Forgets all retained fetches.
+     */
+    public synchronized void clear() {
+        mFetches.clear();
+    }
+
+    private synchronized Observable<String> getOrStart(final String key,
+                                                       final Observable<String> source) {
+        Observable<String> fetch = mFetches.get(key);
+        if (fetch == null) {
+            final ReleaseOnCompleted release = new ReleaseOnCompleted(key);
+            fetch = source.doOnCompleted(release).cache();
+            release.mFetch = fetch;
+            mFetches.put(key, fetch);
+        }
+        return fetch;
+    }
+
+    private final class ReleaseOnCompleted implements Action0 {
+
+        private final String mKey;
+
+        private volatile Observable<String> mFetch;
+
+        private ReleaseOnCompleted(final String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void call() {
+            synchronized (RetainedTokenFetches.this) {
+                if (mFetches.get(mKey) == mFetch) {
+                    mFetches.remove(mKey);
+                }
+            }
+        }
+    }
+}
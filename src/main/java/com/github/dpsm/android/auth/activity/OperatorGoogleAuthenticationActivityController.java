@@ -15,10 +15,19 @@
  */
 package com.github.dpsm.android.auth.activity;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Intent;
+import android.os.Build;
+import android.support.v4.app.FragmentActivity;
 
 import com.github.dpsm.android.auth.OperatorGoogleAuthenticationController;
+import com.github.dpsm.android.auth.RetainedTokenFetches;
+import com.github.dpsm.android.auth.fragment.RetainedTokenFetchesFragment;
+import com.github.dpsm.android.auth.fragment.RetainedTokenFetchesSupportFragment;
+
+import rx.Observable;
+import rx.android.schedulers.AndroidSchedulers;
 
 /**
  * This class extends OperatorGoogleAuthenticationController binding the authentication flow
@@ -46,6 +55,30 @@ public class OperatorGoogleAuthenticationActivityController extends
         androidComponent.startActivityForResult(intent, requestCode);
     }
 
+    @Override
+    protected Observable<String> bind(final Activity androidComponent,
+                                      final Observable<String> source) {
+        // Unlike AndroidObservable.bindActivity(..), does not hold the component while in flight.
+        return source.observeOn(AndroidSchedulers.mainThread());
+    }
+
+    @Override
+    protected boolean isAlive(final Activity androidComponent) {
+        return !androidComponent.isFinishing();
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    protected RetainedTokenFetches getRetainedFetches(final Activity androidComponent) {
+        if (androidComponent instanceof FragmentActivity) {
+            return RetainedTokenFetchesSupportFragment.get((FragmentActivity) androidComponent);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return RetainedTokenFetchesFragment.get(androidComponent);
+        }
+        // No retained instances below Honeycomb without the support library.
+        return null;
+    }
+
     @Override
     protected Activity getActivity(final Activity androidComponent) {
         return androidComponent;
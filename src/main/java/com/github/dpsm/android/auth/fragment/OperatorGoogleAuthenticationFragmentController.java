@@ -22,6 +22,10 @@ import android.content.Intent;
 import android.os.Build;
 
 import com.github.dpsm.android.auth.OperatorGoogleAuthenticationController;
+import com.github.dpsm.android.auth.RetainedTokenFetches;
+
+import rx.Observable;
+import rx.android.schedulers.AndroidSchedulers;
 
 /**
  * This class extends OperatorGoogleAuthenticationController binding the authentication flow
@@ -50,6 +54,24 @@ public class OperatorGoogleAuthenticationFragmentController extends
         androidComponent.startActivityForResult(intent, requestCode);
     }
 
+    @Override
+    protected Observable<String> bind(final Fragment androidComponent,
+                                      final Observable<String> source) {
+        // Unlike AndroidObservable.bindFragment(..), does not hold the component while in flight.
+        return source.observeOn(AndroidSchedulers.mainThread());
+    }
+
+    @Override
+    protected boolean isAlive(final Fragment androidComponent) {
+        return androidComponent.isAdded() && !androidComponent.getActivity().isFinishing();
+    }
+
+    @Override
+    protected RetainedTokenFetches getRetainedFetches(final Fragment androidComponent) {
+        return androidComponent.getActivity() != null
+                ? RetainedTokenFetchesFragment.get(androidComponent.getActivity()) : null;
+    }
+
     @Override
     protected Activity getActivity(final Fragment androidComponent) {
         return androidComponent.getActivity();
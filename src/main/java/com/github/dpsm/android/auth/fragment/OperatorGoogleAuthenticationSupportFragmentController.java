@@ -20,6 +20,10 @@ import android.content.Intent;
 import android.support.v4.app.Fragment;
 
 import com.github.dpsm.android.auth.OperatorGoogleAuthenticationController;
+import com.github.dpsm.android.auth.RetainedTokenFetches;
+
+import rx.Observable;
+import rx.android.schedulers.AndroidSchedulers;
 
 /**
  * This class extends OperatorGoogleAuthenticationController binding the authentication flow
@@ -47,6 +51,24 @@ public class OperatorGoogleAuthenticationSupportFragmentController extends
         androidComponent.startActivityForResult(intent, requestCode);
     }
 
+    @Override
+    protected Observable<String> bind(final Fragment androidComponent,
+                                      final Observable<String> source) {
+        // Unlike AndroidObservable.bindFragment(..), does not hold the component while in flight.
+        return source.observeOn(AndroidSchedulers.mainThread());
+    }
+
+    @Override
+    protected boolean isAlive(final Fragment androidComponent) {
+        return androidComponent.isAdded() && !androidComponent.getActivity().isFinishing();
+    }
+
+    @Override
+    protected RetainedTokenFetches getRetainedFetches(final Fragment androidComponent) {
+        return androidComponent.getActivity() != null
+                ? RetainedTokenFetchesSupportFragment.get(androidComponent.getActivity()) : null;
+    }
+
     @Override
     protected Activity getActivity(final Fragment androidComponent) {
         return androidComponent.getActivity();
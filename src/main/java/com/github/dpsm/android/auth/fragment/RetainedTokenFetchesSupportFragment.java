@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.auth.fragment;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+
+import com.github.dpsm.android.auth.RetainedTokenFetches;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * This class implements a headless retained support Fragment holding the RetainedTokenFetches
+ * of a FragmentActivity across configuration changes.
+ */
+public class RetainedTokenFetchesSupportFragment extends Fragment {
+
+    private static final String TAG = RetainedTokenFetchesSupportFragment.class.getName();
+
+    // Fragments committed but not attached yet, so that callers until the commit executes share
+    // them instead of adding others.
+    private static final Map<Activity, RetainedTokenFetchesSupportFragment> PENDING =
+            new WeakHashMap<Activity, RetainedTokenFetchesSupportFragment>();
+
+    private final RetainedTokenFetches mFetches = new RetainedTokenFetches();
+
+    /**
+     * Get the RetainedTokenFetches held for the specified FragmentActivity, adding the headless
+     * Fragment holding them if needed. Must be called from the main thread. The Fragment
+     * is found by its tag once the FragmentManager executes the pending transactions.
+     *
+     * @param activity the FragmentActivity to hold the fetches for.
+     * @return the retained fetches.
+     */
+    public static RetainedTokenFetches get(final FragmentActivity activity) {
+        if (activity == null) {
+            throw new IllegalArgumentException("Activity can not be null.");
+        }
+
+        final FragmentManager manager = activity.getSupportFragmentManager();
+        RetainedTokenFetchesSupportFragment fragment =
+                (RetainedTokenFetchesSupportFragment) manager.findFragmentByTag(TAG);
+        if (fragment == null) {
+            synchronized (PENDING) {
+                fragment = PENDING.get(activity);
+                if (fragment == null) {
+                    // Executing the commit here would fail from within FragmentManager callbacks.
+                    fragment = new RetainedTokenFetchesSupportFragment();
+                    PENDING.put(activity, fragment);
+                    manager.beginTransaction().add(fragment, TAG).commitAllowingStateLoss();
+                }
+            }
+        }
+        return fragment.mFetches;
+    }
+
+    @Override
+    public void onAttach(final Activity activity) {
+        super.onAttach(activity);
+        // Found by its tag from now on.
+        synchronized (PENDING) {
+            PENDING.remove(activity);
+        }
+    }
+
+    @Override
+    public void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // Only called when the hosting Activity is finishing since this instance is retained.
+        mFetches.clear();
+    }
+}
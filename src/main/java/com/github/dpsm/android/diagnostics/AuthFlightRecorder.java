@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.diagnostics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class keeps the last authentication events in a fixed size ring buffer so that an
+ * application can attach what this library did to a bug report, for instance when a user
+ * complains that signing in was slow.
+ * <br/>
+ * Recording is lock-free and does not allocate: each event is a type, a timestamp from
+ * System.nanoTime(), a number and a reference to an existing object such as a scope or an
+ * exception class. Account names are never recorded. The oldest events are overwritten once the
+ * buffer is full, and an event is dropped rather than waited on when a stalled writer still
+ * holds its slot.
+ *
+ * @see #dump()
+ */
+public final class AuthFlightRecorder {
+
+    /**
+     * The recorded event types.
+     */
+    public static enum Event {
+        /**
+         * A subscriber asked for a token, the detail is the scope.
+         */
+        SUBSCRIBE,
+        /**
+         * A call to Google Play services started, the detail is the scope.
+         */
+        FETCH_START,
+        /**
+         * A call to Google Play services ended, the value is its duration in nanoseconds and
+         * the detail the scope.
+         */
+        FETCH_END,
+        /**
+         * A token request failed, the detail is the exception class.
+         */
+        ERROR,
+        /**
+         * A recovery screen was shown to the user, the value is its request code and the detail
+         * the exception class.
+         */
+        RECOVERY_LAUNCHED,
+        /**
+         * A recovery screen returned, the value is its result code.
+         */
+        ACTIVITY_RESULT,
+        /**
+         * The account picker returned, the value is its result code.
+         */
+        ACCOUNT_SELECTED
+    }
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private static final AuthFlightRecorder sDefault = new AuthFlightRecorder(DEFAULT_CAPACITY);
+
+    private final int mMask;
+
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    // Holds the sequence number plus one of the event in each slot once it is fully written,
+    // negated while it is being written.
+    private final AtomicLongArray mSequences;
+
+    private final AtomicReferenceArray<Event> mEvents;
+
+    private final AtomicLongArray mTimes;
+
+    private final AtomicLongArray mValues;
+
+    private final AtomicReferenceArray<Object> mDetails;
+
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @return the recorder all the classes of this library record into.
+     */
+    public static AuthFlightRecorder getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Creates an instance of this class keeping the specified number of last events.
+     *
+     * @param capacity the number of events kept, a power of two.
+     */
+    public AuthFlightRecorder(final int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two.");
+        }
+        mMask = capacity - 1;
+        mSequences = new AtomicLongArray(capacity);
+        mEvents = new AtomicReferenceArray<Event>(capacity);
+        mTimes = new AtomicLongArray(capacity);
+        mValues = new AtomicLongArray(capacity);
+        mDetails = new AtomicReferenceArray<Object>(capacity);
+    }
+
+    /**
+     * Enables or disables recording. Recording is enabled by default.
+     *
+     * @param enabled true to record events, false to ignore them.
+     */
+    public void setEnabled(final boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param event the event type.
+     * @param value the event's number, its meaning depends on the type.
+     * @param detail an existing object describing the event or null.
+     */
+    public void record(final Event event, final long value, final Object detail) {
+        if (!mEnabled) {
+            return;
+        }
+
+        final long sequence = mNextSequence.getAndIncrement();
+        final int index = (int) sequence & mMask;
+        final long published = sequence + 1;
+        final long current = mSequences.get(index);
+        if (current < 0 || current >= published
+                || !mSequences.compareAndSet(index, current, -published)) {
+            // Another writer owns the slot or already lapped this one, drop the event.
+            return;
+        }
+
+        // Readers skip the slot until it is published again.
+        mEvents.set(index, event);
+        mTimes.set(index, System.nanoTime());
+        mValues.set(index, value);
+        mDetails.set(index, detail);
+        mSequences.set(index, published);
+    }
+
+    /**
+     * @return the number of events recorded since this instance was created, including the
+     * ones overwritten since.
+     */
+    public long getRecordedCount() {
+        return mNextSequence.get();
+    }
+
+    /**
+     * Writes the kept events, oldest first, one per line. Times are relative to the dump.
+     *
+     * @param writer the writer to dump the events into.
+     */
+    public void dump(final PrintWriter writer) {
+        if (writer == null) {
+            throw new IllegalArgumentException("Writer can not be null.");
+        }
+
+        final long now = System.nanoTime();
+        final long next = mNextSequence.get();
+        final long capacity = mMask + 1;
+        for (long sequence = Math.max(0, next - capacity); sequence < next; sequence++) {
+            final int index = (int) sequence & mMask;
+            if (mSequences.get(index) != sequence + 1) {
+                continue;
+            }
+
+            final Event event = mEvents.get(index);
+            final long time = mTimes.get(index);
+            final long value = mValues.get(index);
+            final Object detail = mDetails.get(index);
+            if (mSequences.get(index) != sequence + 1) {
+                // Overwritten while reading.
+                continue;
+            }
+
+            writer.print('-');
+            writer.print(TimeUnit.NANOSECONDS.toMicros(now - time) / 1000f);
+            writer.print("ms ");
+            writer.print(event);
+            writer.print(' ');
+            writer.print(value);
+            if (detail != null) {
+                writer.print(' ');
+                writer.print(detail instanceof Class ? ((Class<?>) detail).getName() : detail);
+            }
+            writer.println();
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return the kept events, oldest first, one per line.
+     *
+     * @see #dump(java.io.PrintWriter)
+     */
+    public String dump() {
+        final StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
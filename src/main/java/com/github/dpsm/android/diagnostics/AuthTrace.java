@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 David Marques.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.dpsm.android.diagnostics;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class emits system trace sections for the time spent in this library, visible in
+ * systrace captures of the application. Synchronous sections require API 18. Asynchronous
+ * sections, connecting a request to its completion across threads and callbacks, rely on the
+ * Trace methods hidden before API 29 and are only emitted while application tracing is enabled.
+ * <br/>
+ * Every method does nothing below API 18 and callers must only pass constant names so that no
+ * allocation happens while tracing is off.
+ */
+public final class AuthTrace {
+
+    private static final boolean SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    /**
+     * Trace.TRACE_TAG_APP, hidden before API 29.
+     */
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private static final AtomicInteger sCookies = new AtomicInteger();
+
+    private AuthTrace() {
+    }
+
+    /**
+     * Begins a section on the calling thread.
+     *
+     * @see android.os.Trace#beginSection(String)
+     *
+     * @param name the constant name of the section.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public static void beginSection(final String name) {
+        if (SUPPORTED) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * Ends the last section begun on the calling thread.
+     *
+     * @see android.os.Trace#endSection()
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public static void endSection() {
+        if (SUPPORTED) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * @return true if application tracing is currently enabled, false otherwise.
+     */
+    public static boolean isEnabled() {
+        return SUPPORTED && Async.isEnabled();
+    }
+
+    /**
+     * Begins an asynchronous section if tracing is enabled.
+     *
+     * @param name the constant name of the section.
+     * @return the cookie to end the section with or 0 if no section was begun.
+     */
+    public static int beginAsyncSection(final String name) {
+        if (!isEnabled()) {
+            return 0;
+        }
+
+        int cookie;
+        do {
+            cookie = sCookies.incrementAndGet();
+        } while (cookie == 0);
+        Async.invoke(Async.ASYNC_TRACE_BEGIN, name, cookie);
+        return cookie;
+    }
+
+    /**
+     * Ends an asynchronous section. Does nothing if no section was begun.
+     *
+     * @param name the name the section was begun with.
+     * @param cookie the cookie returned by beginAsyncSection(..).
+     */
+    public static void endAsyncSection(final String name, final int cookie) {
+        if (cookie != 0 && SUPPORTED) {
+            Async.invoke(Async.ASYNC_TRACE_END, name, cookie);
+        }
+    }
+
+    /**
+     * Resolves the hidden Trace methods on first use.
+     */
+    private static final class Async {
+
+        private static final Method IS_TAG_ENABLED = getMethod("isTagEnabled", long.class);
+
+        private static final Method ASYNC_TRACE_BEGIN =
+                getMethod("asyncTraceBegin", long.class, String.class, int.class);
+
+        private static final Method ASYNC_TRACE_END =
+                getMethod("asyncTraceEnd", long.class, String.class, int.class);
+
+        // Only ever read, shared so that checking the tag does not allocate.
+        private static final Object[] TAG_ARGUMENTS = {TRACE_TAG_APP};
+
+        private static boolean isEnabled() {
+            if (IS_TAG_ENABLED == null || ASYNC_TRACE_BEGIN == null || ASYNC_TRACE_END == null) {
+                return false;
+            }
+
+            try {
+                return (Boolean) IS_TAG_ENABLED.invoke(null, TAG_ARGUMENTS);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private static void invoke(final Method method, final String name, final int cookie) {
+            if (method == null) {
+                return;
+            }
+
+            try {
+                method.invoke(null, TRACE_TAG_APP, name, cookie);
+            } catch (Exception e) {
+                // Tracing is best effort.
+            }
+        }
+
+        private static Method getMethod(final String name, final Class<?>... parameterTypes) {
+            try {
+                return Trace.class.getMethod(name, parameterTypes);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.github.dpsm.android.account.activity;
 import android.accounts.AccountManager;
 import android.app.Activity;
 import android.content.Intent;
+import android.os.Bundle;
 
 import com.google.android.gms.common.AccountPicker;
 
@@ -20,7 +21,7 @@ import org.robolectric.annotation.Config;
 
 @RunWith(PowerMockRunner.class)
 @Config(manifest = Config.NONE, emulateSdk = 18)
-@PrepareForTest({AccountPicker.class})
+@PrepareForTest({AccountPicker.class, Bundle.class})
 public class AccountSelectionActivityHelperTest extends TestCase {
 
     private Intent mAccountSelectionIntent;
@@ -106,6 +107,41 @@ public class AccountSelectionActivityHelperTest extends TestCase {
         Mockito.verify(activity, Mockito.never()).onAccountSelectionCanceled();
     }
 
+    @Test
+    public void givenAccountSelectedWhenStateSavedThenAccountNameSaved() {
+        final AccountSelectionActivity activity = Mockito.mock(AccountSelectionActivity.class);
+        AccountSelectionActivityHelper helper = new AccountSelectionActivityHelper(activity, 1);
+
+        helper.selectUserAccount(null);
+        assertTrue(helper.isSelectionPending());
+
+        final Intent intent = Mockito.mock(Intent.class);
+        Mockito.when(intent.getStringExtra(AccountManager.KEY_ACCOUNT_NAME)).thenReturn("account_name");
+        helper.handleActivityResult(2, Activity.RESULT_OK, intent);
+        assertFalse(helper.isSelectionPending());
+        assertEquals("account_name", helper.getSelectedAccountName());
+
+        final Bundle state = PowerMockito.mock(Bundle.class);
+        helper.saveInstanceState(state);
+
+        Mockito.verify(state).putString(Matchers.anyString(), Matchers.eq("account_name"));
+        Mockito.verify(state).putBoolean(Matchers.anyString(), Matchers.eq(false));
+    }
+
+    @Test
+    public void givenSavedStateWhenRestoredThenSelectionStateRestored() {
+        final AccountSelectionActivity activity = Mockito.mock(AccountSelectionActivity.class);
+        AccountSelectionActivityHelper helper = new AccountSelectionActivityHelper(activity, 1);
+
+        final Bundle state = PowerMockito.mock(Bundle.class);
+        Mockito.when(state.getString(Matchers.anyString())).thenReturn("account_name");
+        Mockito.when(state.getBoolean(Matchers.anyString())).thenReturn(true);
+        helper.restoreInstanceState(state);
+
+        assertTrue(helper.isSelectionPending());
+        assertEquals("account_name", helper.getSelectedAccountName());
+    }
+
     private static abstract class AccountSelectionActivity extends Activity
             implements AccountSelectionActivityHelper.AccountSelectionListener {
     }
@@ -0,0 +1,270 @@
+package com.github.dpsm.android.auth;
+
+import android.app.Activity;
+import android.content.Context;
+
+import com.github.dpsm.android.auth.activity.OperatorGoogleAuthenticationActivityController;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+/**
+ * Verifies that destroyed components can be collected while their token fetches are in flight.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class ComponentLeakTest extends TestCase {
+
+    private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
+
+    private static final String TOKEN = "token_token";
+
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    private GoogleOAuthTokenExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = new GoogleOAuthTokenExecutor(1);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void givenFetchInFlightWhenActivityContextDroppedThenActivityCollectable()
+            throws Exception {
+        ActivityController<LeakActivity> activityController =
+                Robolectric.buildActivity(LeakActivity.class).create();
+        final WeakReference<Activity> reference =
+                new WeakReference<Activity>(activityController.get());
+
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(activityController.get());
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        new GoogleOauthTokenObservable(onSubscribe).subscribe(subscriber);
+        assertTrue(mStarted.await(2, TimeUnit.SECONDS));
+
+        activityController.destroy();
+        activityController = null;
+
+        assertTrue(isCollected(reference));
+    }
+
+    @Test
+    public void givenAuthenticatedFetchInFlightWhenActivityDestroyedThenActivityCollectable()
+            throws Exception {
+        ActivityController<LeakActivity> activityController =
+                Robolectric.buildActivity(LeakActivity.class).create();
+        final WeakReference<Activity> reference =
+                new WeakReference<Activity>(activityController.get());
+
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(activityController.get());
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        new GoogleOauthTokenObservable(onSubscribe)
+                .authenticateUsing(activityController.get(), 0)
+                .subscribe(subscriber);
+        assertTrue(mStarted.await(2, TimeUnit.SECONDS));
+
+        activityController.destroy();
+        activityController = null;
+
+        assertTrue(isCollected(reference));
+    }
+
+    @Test
+    public void givenActivityCollectedWhenTokenArrivesThenDeliveryDropped() throws Exception {
+        ActivityController<LeakActivity> activityController =
+                Robolectric.buildActivity(LeakActivity.class).create();
+        final WeakReference<Activity> reference =
+                new WeakReference<Activity>(activityController.get());
+
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(activityController.get());
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        new GoogleOauthTokenObservable(onSubscribe)
+                .authenticateUsing(activityController.get(), 0)
+                .subscribe(subscriber);
+        assertTrue(mStarted.await(2, TimeUnit.SECONDS));
+
+        activityController.destroy();
+        activityController = null;
+        assertTrue(isCollected(reference));
+
+        mRelease.countDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(2, TimeUnit.SECONDS));
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        assertTrue(subscriber.getOnNextEvents().isEmpty());
+        assertTrue(subscriber.getOnErrorEvents().isEmpty());
+        assertEquals(1, subscriber.getOnCompletedEvents().size());
+    }
+
+    @Test
+    public void givenActivityCollectedWhenErrorDispatchedThenErrorForwarded() throws Exception {
+        ActivityController<LeakActivity> activityController =
+                Robolectric.buildActivity(LeakActivity.class).create();
+        final WeakReference<Activity> reference =
+                new WeakReference<Activity>(activityController.get());
+        final OperatorGoogleAuthenticationActivityController controller =
+                new OperatorGoogleAuthenticationActivityController(activityController.get(), 0);
+
+        activityController.destroy();
+        activityController = null;
+        assertTrue(isCollected(reference));
+
+        final IOException error = new IOException();
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        Observable.<String>error(error).lift(controller).subscribe(subscriber);
+
+        assertEquals(Collections.singletonList(error), subscriber.getOnErrorEvents());
+    }
+
+    @Test
+    public void givenActivityCollectedWhenTokenDispatchedThenTokenDroppedAndCompletionForwarded()
+            throws Exception {
+        final OperatorGoogleAuthenticationActivityController controller =
+                newCollectedController();
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        Observable.just(TOKEN).lift(controller).subscribe(subscriber);
+
+        assertTrue(subscriber.getOnNextEvents().isEmpty());
+        assertEquals(1, subscriber.getOnCompletedEvents().size());
+    }
+
+    @Test
+    public void givenActivityCollectedWhenAuthenticatedFetchFailsThenErrorForwarded()
+            throws Exception {
+        final OperatorGoogleAuthenticationActivityController controller =
+                newCollectedController();
+        final IOException error = new IOException();
+        final GoogleOAuthTokenOnSubscribe onSubscribe = new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE,
+                new GoogleOAuthTokenCache()) {
+            @Override
+            public String getToken() throws IOException {
+                throw error;
+            }
+        };
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        new GoogleOauthTokenObservable(onSubscribe).authenticateUsing(controller)
+                .subscribe(subscriber);
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(Collections.singletonList(error), subscriber.getOnErrorEvents());
+    }
+
+    @Test
+    public void givenActivityCollectedWhenKnownTokenAuthenticatedThenTokenDroppedAndCompleted()
+            throws Exception {
+        final OperatorGoogleAuthenticationActivityController controller =
+                newCollectedController();
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        new GoogleOauthTokenObservable(new GoogleOAuthTokenOnSubscribe(Robolectric.application,
+                "com.google", GOOGLE_PRINT_SCOPE, cache)).authenticateUsing(controller)
+                .subscribe(subscriber);
+
+        assertTrue(subscriber.getOnNextEvents().isEmpty());
+        assertEquals(1, subscriber.getOnCompletedEvents().size());
+    }
+
+    private static OperatorGoogleAuthenticationActivityController newCollectedController()
+            throws Exception {
+        ActivityController<LeakActivity> activityController =
+                Robolectric.buildActivity(LeakActivity.class).create();
+        final WeakReference<Activity> reference =
+                new WeakReference<Activity>(activityController.get());
+        final OperatorGoogleAuthenticationActivityController controller =
+                new OperatorGoogleAuthenticationActivityController(activityController.get(), 0);
+
+        activityController.destroy();
+        activityController = null;
+        assertTrue(isCollected(reference));
+        return controller;
+    }
+
+    private GoogleOAuthTokenOnSubscribe newOnSubscribe(final Context context) {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = new BlockingOnSubscribe(context,
+                mStarted, mRelease);
+        onSubscribe.setExecutor(mExecutor);
+        return onSubscribe;
+    }
+
+    private static boolean isCollected(final WeakReference<?> reference)
+            throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(20);
+        }
+        return reference.get() == null;
+    }
+
+    public static class LeakActivity extends Activity
+            implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
+
+        @Override
+        public void onAuthenticationError(final Throwable throwable) {
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(final String token) {
+        }
+
+        @Override
+        public void onRetryAuthentication() {
+        }
+    }
+
+    private static final class BlockingOnSubscribe extends GoogleOAuthTokenOnSubscribe {
+
+        private final CountDownLatch mStarted;
+
+        private final CountDownLatch mRelease;
+
+        private BlockingOnSubscribe(final Context context, final CountDownLatch started,
+                                    final CountDownLatch release) {
+            super(context, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache());
+            mStarted = started;
+            mRelease = release;
+        }
+
+        @Override
+        public String getToken() throws IOException {
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return TOKEN;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.dpsm.android.auth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthHttpExecutorTest extends TestCase {
+
+    private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
+
+    private static final String STALE_TOKEN = "stale_token";
+
+    private static final String FRESH_TOKEN = "fresh_token";
+
+    private HttpServer mServer;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private volatile String mAcceptedToken = FRESH_TOKEN;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                mRequestCount.incrementAndGet();
+                final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                final int status = ("Bearer " + mAcceptedToken).equals(authorization)
+                        ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_UNAUTHORIZED;
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNullObservableWhenCreatedThenThrows() {
+        new GoogleOAuthHttpExecutor(null);
+    }
+
+    @Test
+    public void givenNoKnownTokenWhenExecutedThenTokenFetchedAndAttached() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(null);
+        Mockito.doReturn(FRESH_TOKEN).when(onSubscribe).getToken();
+
+        final HttpURLConnection connection = newExecutor(onSubscribe).execute(new GetRequest());
+
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        assertEquals(FRESH_TOKEN, onSubscribe.getCachedToken());
+        Mockito.verify(onSubscribe, Mockito.never()).clearToken(Mockito.anyString());
+        connection.disconnect();
+    }
+
+    @Test
+    public void givenRejectedTokenWhenExecutedThenTokenClearedAndRequestRetriedOnce()
+            throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(STALE_TOKEN);
+        Mockito.doReturn(FRESH_TOKEN).when(onSubscribe).getToken();
+
+        final HttpURLConnection connection = newExecutor(onSubscribe).execute(new GetRequest());
+
+        assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+        assertEquals(2, mRequestCount.get());
+        Mockito.verify(onSubscribe).clearToken(STALE_TOKEN);
+        Mockito.verify(onSubscribe).getToken();
+        connection.disconnect();
+    }
+
+    @Test
+    public void givenNewTokenAlsoRejectedWhenExecutedThenUnauthorizedReturned() throws Exception {
+        mAcceptedToken = "other_token";
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(STALE_TOKEN);
+        Mockito.doReturn(FRESH_TOKEN).when(onSubscribe).getToken();
+
+        final HttpURLConnection connection = newExecutor(onSubscribe).execute(new GetRequest());
+
+        assertEquals(HttpURLConnection.HTTP_UNAUTHORIZED, connection.getResponseCode());
+        assertEquals(2, mRequestCount.get());
+        connection.disconnect();
+    }
+
+    @Test
+    public void givenRateLimitExhaustedWhenTokenRejectedThenRetryRateLimited() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(STALE_TOKEN);
+        Mockito.doReturn(FRESH_TOKEN).when(onSubscribe).getToken();
+        final GoogleOAuthTokenRateLimiter rateLimiter = new GoogleOAuthTokenRateLimiter(0.001, 1,
+                100, 100, GoogleOAuthTokenRateLimiter.Policy.REJECT);
+        rateLimiter.reserve("com.google");
+        onSubscribe.setRateLimiter(rateLimiter);
+
+        try {
+            newExecutor(onSubscribe).execute(new GetRequest());
+            fail("Retry should be rate limited");
+        } catch (GoogleOAuthTokenRateLimitException e) {
+            // Expected.
+        }
+
+        Mockito.verify(onSubscribe).clearToken(STALE_TOKEN);
+        Mockito.verify(onSubscribe, Mockito.never()).getToken();
+        assertEquals(1, mRequestCount.get());
+    }
+
+    @Test
+    public void givenConcurrentRequestsRejectedWhenExecutedThenSingleRefetchShared()
+            throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(STALE_TOKEN);
+        final AtomicInteger fetches = new AtomicInteger();
+        Mockito.doAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) throws Throwable {
+                fetches.incrementAndGet();
+                return FRESH_TOKEN;
+            }
+        }).when(onSubscribe).getToken();
+
+        final GoogleOAuthHttpExecutor executor = newExecutor(onSubscribe);
+        final int requests = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(requests);
+        final AtomicInteger succeeded = new AtomicInteger();
+        for (int i = 0; i < requests; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final HttpURLConnection connection = executor.execute(new GetRequest());
+                        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                            succeeded.incrementAndGet();
+                        }
+                        connection.disconnect();
+                    } catch (Exception e) {
+                        // Counted as a failure.
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(requests, succeeded.get());
+        assertEquals(1, fetches.get());
+        Mockito.verify(onSubscribe).clearToken(STALE_TOKEN);
+    }
+
+    @Test
+    public void givenRetryInFlightWhenBlockingCallerAsksThenTokenCallShared() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = newOnSubscribe(STALE_TOKEN);
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger fetches = new AtomicInteger();
+        Mockito.doAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) throws Throwable {
+                fetches.incrementAndGet();
+                fetching.countDown();
+                release.await();
+                return FRESH_TOKEN;
+            }
+        }).when(onSubscribe).getToken();
+
+        final GoogleOAuthHttpExecutor executor = newExecutor(onSubscribe);
+        final AtomicInteger status = new AtomicInteger();
+        final Thread request = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final HttpURLConnection connection = executor.execute(new GetRequest());
+                    status.set(connection.getResponseCode());
+                    connection.disconnect();
+                } catch (Exception e) {
+                    // Left as 0.
+                }
+            }
+        });
+        request.start();
+        assertTrue(fetching.await(2, TimeUnit.SECONDS));
+
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Release right away.
+                }
+                release.countDown();
+            }
+        });
+        releaser.start();
+        assertEquals(FRESH_TOKEN, onSubscribe.getToken(2, TimeUnit.SECONDS));
+
+        request.join(2000);
+        assertEquals(HttpURLConnection.HTTP_OK, status.get());
+        assertEquals(1, fetches.get());
+    }
+
+    private GoogleOAuthTokenOnSubscribe newOnSubscribe(final String knownToken) throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(knownToken);
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        Mockito.doNothing().when(onSubscribe).clearToken(Mockito.anyString());
+        return onSubscribe;
+    }
+
+    private static GoogleOAuthHttpExecutor newExecutor(final GoogleOAuthTokenOnSubscribe onSubscribe) {
+        return new GoogleOAuthHttpExecutor(new GoogleOauthTokenObservable(onSubscribe));
+    }
+
+    private final class GetRequest extends GoogleOAuthHttpExecutor.Request {
+
+        @Override
+        protected HttpURLConnection open() throws IOException {
+            final URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/");
+            return (HttpURLConnection) url.openConnection();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthScopesTest extends TestCase {
+
+    @Test
+    public void givenUnorderedScopesWithDuplicatesWhenNormalizedThenCanonicalStringReturned() {
+        assertEquals("oauth2:a b c", GoogleOAuthScopes.normalize("oauth2:c  a b a"));
+    }
+
+    @Test
+    public void givenNonOAuth2ScopeWhenNormalizedThenScopeUnchanged() {
+        final String audience = "audience:server:client_id:b a";
+        assertSame(audience, GoogleOAuthScopes.normalize(audience));
+        assertNull(GoogleOAuthScopes.parse(audience));
+        assertNull(GoogleOAuthScopes.parse("oauth2: "));
+    }
+
+    @Test
+    public void givenScopeStringWhenParsedThenSortedScopesReturned() {
+        assertTrue(Arrays.equals(new String[] {"a", "b"}, GoogleOAuthScopes.parse("oauth2:b a")));
+    }
+
+    @Test
+    public void givenScopeStringsWhenCombinedThenCanonicalUnionReturned() {
+        assertEquals("oauth2:a b c", GoogleOAuthScopes.union(Arrays.asList("oauth2:c a", "oauth2:b a")));
+        assertNull(GoogleOAuthScopes.union(Arrays.asList("oauth2:a", "audience:server:client_id:b")));
+        assertNull(GoogleOAuthScopes.union(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void givenGrantedScopesWhenCheckedThenSubsetsCovered() {
+        final String[] granted = {"a", "c", "e"};
+
+        assertTrue(GoogleOAuthScopes.covers(granted, new String[] {"a", "e"}));
+        assertTrue(GoogleOAuthScopes.covers(granted, granted));
+        assertFalse(GoogleOAuthScopes.covers(granted, new String[] {"b"}));
+        assertFalse(GoogleOAuthScopes.covers(granted, new String[] {"e", "f"}));
+        assertFalse(GoogleOAuthScopes.covers(new String[] {"a"}, new String[] {"a", "b"}));
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenCacheTest extends TestCase {
+
+    private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
+
+    public static final String TOKEN = "token_token";
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNullAccountWhenEntryRequestedThenThrows() {
+        new GoogleOAuthTokenCache().getEntry(null, GOOGLE_PRINT_SCOPE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNullScopeWhenEntryRequestedThenThrows() {
+        new GoogleOAuthTokenCache().getEntry("com.google", null);
+    }
+
+    @Test
+    public void givenSameAccountAndScopeWhenEntryRequestedThenSameEntryReturned() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        assertSame(cache.getEntry("com.google", GOOGLE_PRINT_SCOPE),
+                cache.getEntry("com.google", GOOGLE_PRINT_SCOPE));
+    }
+
+    @Test
+    public void givenTokenRecordedWhenQueriedThenTokenReturned() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+
+        assertEquals(TOKEN, cache.getToken("com.google", GOOGLE_PRINT_SCOPE));
+        assertNull(cache.getToken("someone", GOOGLE_PRINT_SCOPE));
+    }
+
+    @Test
+    public void givenTokenRecordedWhenInvalidatedThenTokenForgotten() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+
+        assertFalse(cache.invalidate("another_token"));
+        assertTrue(cache.invalidate(TOKEN));
+        assertNull(cache.getToken("com.google", GOOGLE_PRINT_SCOPE));
+    }
+
+    @Test
+    public void givenScopesInAnotherOrderWhenEntryRequestedThenSameEntryReturned() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        final GoogleOAuthTokenCache.Entry entry = cache.getEntry("com.google", "oauth2:b a");
+
+        assertSame(entry, cache.getEntry("com.google", "oauth2:a  b a"));
+        assertEquals("oauth2:a b", entry.getScope());
+    }
+
+    @Test
+    public void givenBroaderTokenRecordedWhenNarrowerScopeQueriedThenFewestScopesTokenReturned() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", "oauth2:a b c").setToken("abc_token");
+        cache.getEntry("com.google", "oauth2:a c").setToken("ac_token");
+        cache.getEntry("someone", "oauth2:a").setToken("someone_token");
+
+        assertEquals("ac_token", cache.getTokenCovering("com.google", "oauth2:c a"));
+        assertEquals("abc_token", cache.getTokenCovering("com.google", "oauth2:b"));
+        assertNull(cache.getTokenCovering("com.google", "oauth2:a d"));
+        assertNull(cache.getToken("com.google", "oauth2:b"));
+    }
+
+    @Test
+    public void givenBroaderTokenInvalidatedWhenNarrowerScopeQueriedThenNothingReturned() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", "oauth2:a b").setToken(TOKEN);
+
+        assertTrue(cache.invalidate(TOKEN));
+        assertNull(cache.getTokenCovering("com.google", "oauth2:a"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenConcurrencyLimiterTest extends TestCase {
+
+    private static final long FAST = 10000000L;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenInitialLimitOutOfBoundsWhenCreatedThenThrows() {
+        new GoogleOAuthTokenConcurrencyLimiter(10, 1, 8, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenToleranceNotAboveOneWhenCreatedThenThrows() {
+        new GoogleOAuthTokenConcurrencyLimiter(2, 1, 8, 1);
+    }
+
+    @Test
+    public void givenFastCallsWhenSampledThenLimitGrowsAdditivelyUpToMax() {
+        final GoogleOAuthTokenConcurrencyLimiter limiter =
+                new GoogleOAuthTokenConcurrencyLimiter(2, 1, 4, 2);
+
+        limiter.onSample(FAST, false);
+        limiter.onSample(FAST, false);
+        assertEquals(2, limiter.getLimit());
+        limiter.onSample(FAST, false);
+        assertEquals(3, limiter.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(FAST, false);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getDropCount());
+    }
+
+    @Test
+    public void givenFailedCallWhenSampledThenLimitDecreasesMultiplicatively() {
+        final GoogleOAuthTokenConcurrencyLimiter limiter =
+                new GoogleOAuthTokenConcurrencyLimiter(8, 1, 8, 2);
+
+        assertEquals(6, limiter.onSample(FAST, true));
+        assertEquals(1, limiter.getDropCount());
+    }
+
+    @Test
+    public void givenSlowCallWhenSampledThenLimitDecreases() {
+        final GoogleOAuthTokenConcurrencyLimiter limiter =
+                new GoogleOAuthTokenConcurrencyLimiter(8, 1, 8, 2);
+
+        limiter.onSample(FAST, false);
+        assertEquals(6, limiter.onSample(FAST * 5, false));
+    }
+
+    @Test
+    public void givenRepeatedFailuresWhenSampledThenLimitNeverBelowMin() {
+        final FakeClockLimiter limiter = new FakeClockLimiter(8, 2, 8, 2);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.mNow += FAST;
+            limiter.onSample(FAST, true);
+        }
+        assertEquals(2, limiter.getLimit());
+        assertEquals(20, limiter.getSampleCount());
+    }
+
+    @Test
+    public void givenFailuresWithinLatencyWindowWhenSampledThenLimitDecreasedOnce() {
+        final FakeClockLimiter limiter = new FakeClockLimiter(8, 1, 8, 2);
+
+        assertEquals(6, limiter.onSample(FAST, true));
+        limiter.mNow += FAST / 2;
+        assertEquals(6, limiter.onSample(FAST, true));
+        assertEquals(2, limiter.getDropCount());
+
+        limiter.mNow += FAST / 2;
+        assertEquals(4, limiter.onSample(FAST, true));
+    }
+
+    private static final class FakeClockLimiter extends GoogleOAuthTokenConcurrencyLimiter {
+
+        private long mNow;
+
+        private FakeClockLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+                                 final double latencyTolerance) {
+            super(initialLimit, minLimit, maxLimit, latencyTolerance);
+        }
+
+        @Override
+        long now() {
+            return mNow;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.github.dpsm.android.auth;
+
+import com.github.dpsm.android.diagnostics.AuthFlightRecorder;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+
+/**
+ * Runs the token engine on a plain JVM: the engine classes are loaded in a class loader which
+ * refuses every Android class, the way a server or a desktop tool would load them.
+ */
+@RunWith(JUnit4.class)
+public class GoogleOAuthTokenCoreTest extends TestCase {
+
+    private static final String LIBRARY_PACKAGE = "com.github.dpsm.android.";
+
+    private static final String ANDROID_PACKAGE = "android.";
+
+    private static final String SCOPE_A = "oauth2:https://www.googleapis.com/auth/a";
+
+    private static final String SCOPE_B = "oauth2:https://www.googleapis.com/auth/b";
+
+    private static final String ACCOUNT = "someone@gmail.com";
+
+    @Test
+    public void givenCoreClassesWhenLoadedWithoutAndroidThenInitialized() throws Exception {
+        final AndroidFreeClassLoader loader = newClassLoader();
+        final List<Class<?>> core = Arrays.<Class<?>>asList(
+                GoogleOAuthScopes.class,
+                GoogleOAuthTokenCache.class,
+                GoogleOAuthTokenClock.class,
+                GoogleOAuthTokenConcurrencyLimiter.class,
+                GoogleOAuthTokenEngine.class,
+                GoogleOAuthTokenExecutor.class,
+                GoogleOAuthTokenLifetimeEstimator.class,
+                GoogleOAuthTokenMainThreadPolicy.class,
+                GoogleOAuthTokenPriority.class,
+                GoogleOAuthTokenRateLimiter.class,
+                GoogleOAuthTokenRateLimitException.class,
+                GoogleOAuthTokenSource.class,
+                GoogleOAuthTokenTimeoutException.class,
+                RetainedTokenFetches.class,
+                AuthFlightRecorder.class);
+
+        for (final Class<?> type : core) {
+            final Class<?> loaded = Class.forName(type.getName(), true, loader);
+            assertNotSame(type, loaded);
+        }
+
+        assertTrue(loader.getRefused().isEmpty());
+    }
+
+    @Test
+    public void givenCoreClassesWhenRunWithoutAndroidThenNoAndroidClassRequested()
+            throws Exception {
+        final AndroidFreeClassLoader loader = newClassLoader();
+
+        @SuppressWarnings("unchecked")
+        final Callable<String> scenario = (Callable<String>) Class
+                .forName(CoreScenario.class.getName(), true, loader).newInstance();
+
+        assertEquals("token-ab", scenario.call());
+        assertTrue(loader.getRefused().isEmpty());
+    }
+
+    /**
+     * Exercises the engine classes. Loaded in the Android free class loader, so that every class
+     * it links against is resolved there.
+     */
+    public static final class CoreScenario implements Callable<String> {
+
+        @Override
+        public String call() throws Exception {
+            final InMemoryStore store = new InMemoryStore();
+            final GoogleOAuthTokenLifetimeEstimator estimator =
+                    new GoogleOAuthTokenLifetimeEstimator(
+                            GoogleOAuthTokenLifetimeEstimator.DEFAULT_LIFETIME_MILLIS);
+            assertTrue(estimator.attach(store));
+
+            final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache(estimator);
+            final String union = GoogleOAuthScopes.union(Arrays.asList(SCOPE_B, SCOPE_A));
+            cache.getEntry(ACCOUNT, union).setToken("token-ab");
+            final String covering = cache.getTokenCovering(ACCOUNT, SCOPE_A);
+
+            assertTrue(cache.invalidate("token-ab"));
+            assertNull(cache.getTokenCovering(ACCOUNT, SCOPE_A));
+            assertEquals(1, store.mSaved.size());
+
+            final GoogleOAuthTokenConcurrencyLimiter limiter =
+                    new GoogleOAuthTokenConcurrencyLimiter(4, 1, 8, 2.0);
+            limiter.onSample(1000000L, false);
+            assertEquals(1, limiter.getSampleCount());
+
+            final GoogleOAuthTokenRateLimiter rateLimiter = new GoogleOAuthTokenRateLimiter(
+                    1, 1, 10, 10, GoogleOAuthTokenRateLimiter.Policy.REJECT);
+            assertTrue(rateLimiter.tryAcquire(ACCOUNT));
+
+            final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+            try {
+                assertEquals(covering, executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return covering;
+                    }
+                }).get());
+
+                final FakeEngine engine = new FakeEngine(cache);
+                engine.setExecutor(executor);
+                engine.setTimeout(1, TimeUnit.SECONDS);
+                assertEquals("token-a", engine.getToken(0, TimeUnit.MILLISECONDS));
+                assertEquals("token-a", Observable.create(engine).toBlocking().single());
+                assertEquals(1, engine.mCalls.get());
+            } finally {
+                executor.shutdown();
+            }
+
+            final AuthFlightRecorder recorder = new AuthFlightRecorder(4);
+            recorder.record(AuthFlightRecorder.Event.FETCH_END, 1, covering);
+            assertEquals(1, recorder.getRecordedCount());
+            return covering;
+        }
+    }
+
+    private static final class FakeEngine extends GoogleOAuthTokenEngine {
+
+        private final AtomicInteger mCalls = new AtomicInteger();
+
+        private FakeEngine(final GoogleOAuthTokenCache cache) {
+            super(ACCOUNT, SCOPE_A, cache);
+        }
+
+        @Override
+        public String getToken() {
+            mCalls.incrementAndGet();
+            return "token-a";
+        }
+    }
+
+    private static final class InMemoryStore implements GoogleOAuthTokenLifetimeEstimator.Store {
+
+        private final Map<String, Long> mSaved = new HashMap<String, Long>();
+
+        @Override
+        public Map<String, Long> load() {
+            return new HashMap<String, Long>(mSaved);
+        }
+
+        @Override
+        public void save(final String scope, final long lifetimeMillis) {
+            mSaved.put(scope, lifetimeMillis);
+        }
+    }
+
+    private AndroidFreeClassLoader newClassLoader() {
+        final ClassLoader parent = getClass().getClassLoader();
+        return new AndroidFreeClassLoader(parent,
+                findRoot(parent, GoogleOAuthTokenCache.class),
+                findRoot(parent, CoreScenario.class));
+    }
+
+    private static File findRoot(final ClassLoader loader, final Class<?> type) {
+        final String resource = type.getName().replace('.', '/') + ".class";
+        File root = new File(loader.getResource(resource).getPath()).getParentFile();
+        for (int i = resource.split("/").length - 1; i > 0; i--) {
+            root = root.getParentFile();
+        }
+        return root;
+    }
+
+    /**
+     * Defines the library and test classes itself, refuses the Android classes and delegates
+     * everything else to the parent class loader.
+     */
+    private static final class AndroidFreeClassLoader extends ClassLoader {
+
+        private final File[] mRoots;
+
+        private final Set<String> mRefused = new HashSet<String>();
+
+        private AndroidFreeClassLoader(final ClassLoader parent, final File... roots) {
+            super(parent);
+            mRoots = roots;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+                throws ClassNotFoundException {
+            if (name.startsWith(ANDROID_PACKAGE)) {
+                mRefused.add(name);
+                throw new ClassNotFoundException(name);
+            }
+
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                final File file = findClassFile(name);
+                if (name.startsWith(LIBRARY_PACKAGE) && file != null) {
+                    final byte[] bytes = read(file);
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                } else {
+                    loaded = getParent().loadClass(name);
+                }
+            }
+
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+
+        private synchronized List<String> getRefused() {
+            return new ArrayList<String>(mRefused);
+        }
+
+        private File findClassFile(final String name) {
+            for (final File root : mRoots) {
+                final File file = new File(root, name.replace('.', '/') + ".class");
+                if (file.isFile()) {
+                    return file;
+                }
+            }
+            return null;
+        }
+
+        private static byte[] read(final File file) throws ClassNotFoundException {
+            try {
+                final InputStream in = new FileInputStream(file);
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(file.getPath(), e);
+            }
+        }
+    }
+}
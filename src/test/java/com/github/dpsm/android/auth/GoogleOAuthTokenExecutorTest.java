@@ -0,0 +1,276 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenExecutorTest extends TestCase {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNonPositivePoolSizeWhenCreatedThenThrows() {
+        new GoogleOAuthTokenExecutor(0);
+    }
+
+    @Test
+    public void givenTaskAbandonedThenPoolGrowsUntilTaskFinishes() {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+
+        executor.onTaskAbandoned();
+        assertEquals(1, executor.getAbandonedCount());
+        assertEquals(3, executor.getCorePoolSize());
+        assertEquals(3, executor.getMaximumPoolSize());
+
+        executor.onAbandonedTaskFinished();
+        assertEquals(0, executor.getAbandonedCount());
+        assertEquals(2, executor.getCorePoolSize());
+        assertEquals(2, executor.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void givenNoTaskAbandonedWhenFinishedThenIgnored() {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+
+        executor.onAbandonedTaskFinished();
+        executor.onTaskAbandoned();
+
+        assertEquals(1, executor.getAbandonedCount());
+        assertEquals(2, executor.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void givenConcurrencyLimiterWhenCallsRecordedThenPoolFollowsLimit() {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        executor.setConcurrencyLimiter(new GoogleOAuthTokenConcurrencyLimiter(4, 1, 8, 2));
+        assertEquals(4, executor.getConcurrencyLimit());
+        assertEquals(4, executor.getMaximumPoolSize());
+
+        executor.recordCall(1000000L, true);
+        assertEquals(3, executor.getConcurrencyLimit());
+        assertEquals(3, executor.getCorePoolSize());
+        assertEquals(3, executor.getMaximumPoolSize());
+
+        executor.onTaskAbandoned();
+        assertEquals(4, executor.getMaximumPoolSize());
+        executor.onAbandonedTaskFinished();
+
+        executor.setConcurrencyLimiter(null);
+        executor.recordCall(1000000L, true);
+        assertEquals(2, executor.getConcurrencyLimit());
+        assertEquals(0, executor.getQueueLength());
+        executor.shutdown();
+    }
+
+    @Test
+    public void givenQueuedTasksWhenThreadFreedThenInteractiveServedFirst() throws Exception {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        final CountDownLatch releaseInteractive = new CountDownLatch(1);
+        final CountDownLatch releaseBackground = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        executor.execute(new RecordingTask("blocker", GoogleOAuthTokenPriority.INTERACTIVE,
+                order, releaseInteractive, done));
+        executor.execute(new RecordingTask("background blocker",
+                GoogleOAuthTokenPriority.BACKGROUND, order, releaseBackground, done));
+        awaitSize(order, 2);
+        executor.execute(new RecordingTask("background", GoogleOAuthTokenPriority.BACKGROUND,
+                order, null, done));
+        executor.execute(new RecordingTask("interactive", GoogleOAuthTokenPriority.INTERACTIVE,
+                order, null, done));
+
+        releaseInteractive.countDown();
+        awaitSize(order, 3);
+        assertEquals("interactive", order.get(2));
+        releaseBackground.countDown();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals("background", order.get(3));
+        executor.shutdown();
+    }
+
+    @Test
+    public void givenSingleThreadWhenBackgroundSubmittedThenRunToCompletion() throws Exception {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        final Future<?> future = executor.submit(new RecordingTask("background",
+                GoogleOAuthTokenPriority.BACKGROUND, order, null, done));
+
+        future.get(2, TimeUnit.SECONDS);
+        assertEquals(0, done.getCount());
+        assertEquals(0, executor.getDeferredCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void givenInteractiveRunningWhenBackgroundLimitReachedThenDeferredUntilItFinishes()
+            throws Exception {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        final CountDownLatch releaseInteractive = new CountDownLatch(1);
+        final CountDownLatch releaseBackground = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        executor.execute(new RecordingTask("interactive", GoogleOAuthTokenPriority.INTERACTIVE,
+                order, releaseInteractive, done));
+        executor.execute(new RecordingTask("first", GoogleOAuthTokenPriority.BACKGROUND,
+                order, releaseBackground, done));
+        awaitSize(order, 2);
+        executor.execute(new RecordingTask("second", GoogleOAuthTokenPriority.BACKGROUND,
+                order, null, done));
+        // The extra thread takes the second background call, which must leave it free.
+        executor.onTaskAbandoned();
+        awaitDeferred(executor, 1);
+        assertEquals(1, executor.getDeferredCount());
+        assertFalse(order.contains("second"));
+
+        releaseInteractive.countDown();
+        awaitSize(order, 3);
+        assertEquals("second", order.get(2));
+        assertEquals(0, executor.getDeferredCount());
+
+        releaseBackground.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void givenDeferredTaskWhenShutdownThenRejected() throws Exception {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        executor.execute(new RecordingTask("interactive", GoogleOAuthTokenPriority.INTERACTIVE,
+                order, release, done));
+        executor.execute(new RecordingTask("background", GoogleOAuthTokenPriority.BACKGROUND,
+                order, release, done));
+        awaitSize(order, 2);
+
+        final RejectableTask task = new RejectableTask();
+        final Future<?> future = executor.submit(task);
+        executor.onTaskAbandoned();
+        awaitDeferred(executor, 1);
+        executor.shutdown();
+
+        assertTrue(task.mRejected.await(2, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+        assertEquals(0, executor.getDeferredCount());
+        release.countDown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void givenNoInteractiveCallWhenBackgroundTasksSubmittedThenEveryThreadUsed()
+            throws Exception {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        executor.execute(new RecordingTask("first", GoogleOAuthTokenPriority.BACKGROUND,
+                order, release, done));
+        executor.execute(new RecordingTask("second", GoogleOAuthTokenPriority.BACKGROUND,
+                order, release, done));
+
+        awaitSize(order, 2);
+        assertEquals(2, order.size());
+        assertEquals(0, executor.getDeferredCount());
+
+        release.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    private static void awaitDeferred(final GoogleOAuthTokenExecutor executor, final int count)
+            throws Exception {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (executor.getDeferredCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitSize(final List<String> order, final int size) throws Exception {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (order.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class RejectableTask implements Runnable,
+            GoogleOAuthTokenExecutor.Prioritized, GoogleOAuthTokenExecutor.Rejectable {
+
+        private final CountDownLatch mRejected = new CountDownLatch(1);
+
+        @Override
+        public GoogleOAuthTokenPriority getPriority() {
+            return GoogleOAuthTokenPriority.BACKGROUND;
+        }
+
+        @Override
+        public void onRejected() {
+            mRejected.countDown();
+        }
+
+        @Override
+        public void run() {
+            fail("Deferred task should not run.");
+        }
+    }
+
+    private static final class RecordingTask implements Runnable,
+            GoogleOAuthTokenExecutor.Prioritized {
+
+        private final String mName;
+
+        private final GoogleOAuthTokenPriority mPriority;
+
+        private final List<String> mOrder;
+
+        private final CountDownLatch mRelease;
+
+        private final CountDownLatch mDone;
+
+        private RecordingTask(final String name, final GoogleOAuthTokenPriority priority,
+                              final List<String> order, final CountDownLatch release,
+                              final CountDownLatch done) {
+            mName = name;
+            mPriority = priority;
+            mOrder = order;
+            mRelease = release;
+            mDone = done;
+        }
+
+        @Override
+        public GoogleOAuthTokenPriority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void run() {
+            mOrder.add(mName);
+            try {
+                if (mRelease != null) {
+                    mRelease.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.dpsm.android.auth;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenFrameSchedulerTest extends TestCase {
+
+    private GoogleOAuthTokenFrameScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        Robolectric.getUiThreadScheduler().pause();
+        mScheduler = new GoogleOAuthTokenFrameScheduler(new Handler(Looper.getMainLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        Robolectric.getUiThreadScheduler().unPause();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNullHandlerWhenCreatedThenThrows() {
+        new GoogleOAuthTokenFrameScheduler(null);
+    }
+
+    @Test
+    public void givenManyWorkersWhenActionsScheduledThenSinglePostDrainsThemInOrder() {
+        final List<Integer> ran = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            mScheduler.createWorker().schedule(new RecordingAction(ran, i));
+        }
+
+        assertEquals(1, mScheduler.getPostCount());
+        assertTrue(ran.isEmpty());
+
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ran);
+    }
+
+    @Test
+    public void givenBatchDrainedWhenMoreActionsScheduledThenNextBatchPosted() {
+        final List<Integer> ran = new ArrayList<Integer>();
+        mScheduler.createWorker().schedule(new RecordingAction(ran, 0));
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        mScheduler.createWorker().schedule(new RecordingAction(ran, 1));
+        mScheduler.createWorker().schedule(new RecordingAction(ran, 2));
+        assertEquals(2, mScheduler.getPostCount());
+
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(Arrays.asList(0, 1, 2), ran);
+    }
+
+    @Test
+    public void givenWorkerUnsubscribedWhenBatchDrainedThenItsActionsSkipped() {
+        final List<Integer> ran = new ArrayList<Integer>();
+        final Scheduler.Worker unsubscribed = mScheduler.createWorker();
+        unsubscribed.schedule(new RecordingAction(ran, 0));
+        mScheduler.createWorker().schedule(new RecordingAction(ran, 1));
+        unsubscribed.unsubscribe();
+
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(Arrays.asList(1), ran);
+    }
+
+    private static final class RecordingAction implements Action0 {
+
+        private final List<Integer> mRan;
+
+        private final int mIndex;
+
+        private RecordingAction(final List<Integer> ran, final int index) {
+            mRan = ran;
+            mIndex = index;
+        }
+
+        @Override
+        public void call() {
+            mRan.add(mIndex);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.dpsm.android.auth;
+
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenLifetimeEstimatorTest extends TestCase {
+
+    private static final String SCOPE = "oauth2:a";
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Before
+    public void setUp() {
+        // Cache timestamps are taken from SystemClock below, as on a device.
+        GoogleOAuthTokenAndroidClock.install();
+    }
+
+    @Test
+    public void givenNoObservationWhenEstimatedThenInitialLifetimeReturned() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+
+        assertEquals(HOUR, estimator.getLifetimeMillis(SCOPE));
+        assertEquals(HOUR * 9 / 10, estimator.getFreshMillis(SCOPE));
+    }
+
+    @Test
+    public void givenTokensRejectedEarlyWhenEstimatedThenLifetimeDecaysTowardsRejectionAge() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        estimator.onTokenRejected(SCOPE, 20 * MINUTE);
+        assertEquals(50 * MINUTE, estimator.getLifetimeMillis(SCOPE));
+
+        for (int i = 0; i < 50; i++) {
+            estimator.onTokenRejected(SCOPE, 20 * MINUTE);
+        }
+        assertEquals(20 * MINUTE, estimator.getLifetimeMillis(SCOPE), MINUTE / 10);
+        assertEquals(HOUR, estimator.getLifetimeMillis("oauth2:b"));
+    }
+
+    @Test
+    public void givenRejectionAfterEstimateWhenEstimatedThenLifetimeUnchanged() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        estimator.onTokenRejected(SCOPE, 2 * HOUR);
+
+        assertEquals(HOUR, estimator.getLifetimeMillis(SCOPE));
+    }
+
+    @Test
+    public void givenSameTokenReturnedPastEstimateWhenEstimatedThenLifetimeRaised() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        estimator.onTokenRefetched(SCOPE, 30 * MINUTE, false);
+        assertEquals(HOUR, estimator.getLifetimeMillis(SCOPE));
+
+        // Raised past 75 minutes, the weighted observation, so that the token is fresh again.
+        estimator.onTokenRefetched(SCOPE, 2 * HOUR, false);
+        final long lifetime = estimator.getLifetimeMillis(SCOPE);
+        assertEquals(2 * HOUR / 0.81, lifetime, 1);
+        assertEquals(2 * HOUR / 0.9, estimator.getFreshMillis(SCOPE), 1);
+
+        estimator.onTokenRefetched(SCOPE, 15 * MINUTE, true);
+        assertEquals(0.75 * lifetime + 0.25 * 15 * MINUTE, estimator.getLifetimeMillis(SCOPE), 1);
+    }
+
+    @Test
+    public void givenTokenReplacedPastEstimateWhenEstimatedThenLifetimeUnchanged() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        estimator.onTokenRefetched(SCOPE, 2 * HOUR, true);
+
+        assertEquals(HOUR, estimator.getLifetimeMillis(SCOPE));
+    }
+
+    @Test
+    public void givenRegisteredEstimatorWhenObservedThenEstimateRestoredByNextInstance() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        assertTrue(estimator.attach(new GoogleOAuthTokenLifetimePreferences(Robolectric.application)));
+        estimator.onTokenRejected(SCOPE, 20 * MINUTE);
+
+        final GoogleOAuthTokenLifetimeEstimator restarted = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        restarted.attach(new GoogleOAuthTokenLifetimePreferences(Robolectric.application));
+        assertEquals(50 * MINUTE, restarted.getLifetimeMillis(SCOPE));
+    }
+
+    @Test
+    public void givenEstimatorWhenTokenOlderThanLifetimeThenNotServedFromCache() {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache(
+                new GoogleOAuthTokenLifetimeEstimator(HOUR));
+        final GoogleOAuthTokenCache.Entry entry = cache.getEntry("com.google", SCOPE);
+        entry.setToken("old_token", SystemClock.elapsedRealtime() - HOUR);
+        assertNull(cache.getTokenCovering(entry));
+        assertEquals("old_token", entry.getToken());
+
+        // The same token again is still as old, yet known to be accepted past that age.
+        entry.setToken("old_token");
+        assertEquals("old_token", cache.getTokenCovering(entry));
+        assertEquals(SystemClock.elapsedRealtime() - HOUR, entry.getAcquiredAt(), MINUTE / 10);
+
+        entry.setToken("new_token");
+        assertEquals("new_token", cache.getTokenCovering(entry));
+    }
+
+    @Test
+    public void givenEstimatorWhenTokenRejectedThenRejectionAgeObserved() {
+        final GoogleOAuthTokenLifetimeEstimator estimator = new GoogleOAuthTokenLifetimeEstimator(HOUR);
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache(estimator);
+        cache.getEntry("com.google", SCOPE).setToken("token",
+                SystemClock.elapsedRealtime() - 20 * MINUTE);
+
+        assertTrue(cache.invalidate("token"));
+        assertEquals(50 * MINUTE, estimator.getLifetimeMillis(SCOPE), MINUTE / 10);
+    }
+}
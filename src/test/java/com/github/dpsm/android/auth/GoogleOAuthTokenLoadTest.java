@@ -0,0 +1,232 @@
+package com.github.dpsm.android.auth;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * Drives thousands of concurrent token subscriptions through GoogleOAuthTokenOnSubscribe and
+ * OperatorGoogleAuthenticationController against a fake token source with a fixed latency.
+ * <br/>
+ * Excluded from the default build, run with: mvn test -P load-test [-Dloadtest.subscribers=..]
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenLoadTest extends TestCase {
+
+    private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
+
+    public static final String TOKEN = "token_token";
+
+    @Test
+    public void givenConcurrentSubscribersWhenTokensFetchedThenBudgetsMet() throws Exception {
+        final int subscribers = Integer.getInteger("loadtest.subscribers", 5000);
+        final int poolSize = Integer.getInteger("loadtest.poolSize", 4);
+        final long latencyMillis = Long.getLong("loadtest.latencyMillis", 5);
+
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(poolSize);
+        final FakeTokenOnSubscribe onSubscribe = new FakeTokenOnSubscribe(
+                Robolectric.application, latencyMillis);
+        onSubscribe.setExecutor(executor);
+
+        final CountingListener listener = new CountingListener();
+        final Observable<String> observable = Observable.create(onSubscribe)
+                .lift(new LoadController(listener));
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long heapBefore = usedHeap();
+
+        final long[] latencies = new long[subscribers];
+        final CountDownLatch done = new CountDownLatch(subscribers);
+        final long start = System.nanoTime();
+        for (int i = 0; i < subscribers; i++) {
+            observable.unsafeSubscribe(new TimingSubscriber(latencies, i, done));
+        }
+        assertTrue("Timed out waiting for tokens", done.await(10, TimeUnit.MINUTES));
+        final long elapsed = System.nanoTime() - start;
+
+        final long heapGrowth = usedHeap() - heapBefore;
+        final int peakThreads = threads.getPeakThreadCount();
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        final Report report = new Report(subscribers, elapsed, latencies, peakThreads, heapGrowth);
+        System.out.println(report);
+
+        assertEquals(subscribers, listener.mSucceeded.get());
+        assertEquals(0, listener.mFailed.get());
+        assertTrue(report.toString(), report.mThroughput
+                >= Integer.getInteger("loadtest.minThroughput", 200));
+        assertTrue(report.toString(), report.percentileMillis(0.99)
+                <= Long.getLong("loadtest.maxP99Millis", 30000));
+        assertTrue(report.toString(), peakThreads
+                <= Integer.getInteger("loadtest.maxThreads", 64));
+        assertTrue(report.toString(), heapGrowth
+                <= Long.getLong("loadtest.maxHeapGrowthMb", 64) * 1024 * 1024);
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class Report {
+
+        private final int mSubscribers;
+
+        private final long mElapsedNanos;
+
+        private final long[] mSortedLatencies;
+
+        private final int mPeakThreads;
+
+        private final long mHeapGrowth;
+
+        private final double mThroughput;
+
+        private Report(final int subscribers, final long elapsedNanos,
+                       final long[] sortedLatencies, final int peakThreads,
+                       final long heapGrowth) {
+            mSubscribers = subscribers;
+            mElapsedNanos = elapsedNanos;
+            mSortedLatencies = sortedLatencies;
+            mPeakThreads = peakThreads;
+            mHeapGrowth = heapGrowth;
+            mThroughput = subscribers / (elapsedNanos / 1e9);
+        }
+
+        private long percentileMillis(final double percentile) {
+            final int index = (int) Math.min(mSortedLatencies.length - 1,
+                    Math.ceil(percentile * mSortedLatencies.length) - 1);
+            return TimeUnit.NANOSECONDS.toMillis(mSortedLatencies[Math.max(0, index)]);
+        }
+
+        @Override
+        public String toString() {
+            return "Load test: subscribers=" + mSubscribers
+                    + " elapsedMs=" + TimeUnit.NANOSECONDS.toMillis(mElapsedNanos)
+                    + " throughput/s=" + (long) mThroughput
+                    + " p50Ms=" + percentileMillis(0.50)
+                    + " p99Ms=" + percentileMillis(0.99)
+                    + " p999Ms=" + percentileMillis(0.999)
+                    + " peakThreads=" + mPeakThreads
+                    + " heapGrowthKb=" + mHeapGrowth / 1024;
+        }
+    }
+
+    private static final class FakeTokenOnSubscribe extends GoogleOAuthTokenOnSubscribe {
+
+        private final long mLatencyMillis;
+
+        private FakeTokenOnSubscribe(final Context context, final long latencyMillis) {
+            super(context, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache());
+            mLatencyMillis = latencyMillis;
+        }
+
+        @Override
+        public String getToken() {
+            try {
+                Thread.sleep(mLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return TOKEN;
+        }
+    }
+
+    private static final class TimingSubscriber extends Subscriber<String> {
+
+        private final long[] mLatencies;
+
+        private final int mIndex;
+
+        private final CountDownLatch mDone;
+
+        private final long mStart = System.nanoTime();
+
+        private TimingSubscriber(final long[] latencies, final int index,
+                                 final CountDownLatch done) {
+            mLatencies = latencies;
+            mIndex = index;
+            mDone = done;
+        }
+
+        @Override
+        public void onCompleted() {
+            mDone.countDown();
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            mDone.countDown();
+        }
+
+        @Override
+        public void onNext(final String token) {
+            mLatencies[mIndex] = System.nanoTime() - mStart;
+        }
+    }
+
+    private static final class CountingListener
+            implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
+
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+
+        private final AtomicInteger mFailed = new AtomicInteger();
+
+        @Override
+        public void onAuthenticationError(final Throwable throwable) {
+            mFailed.incrementAndGet();
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(final String token) {
+            mSucceeded.incrementAndGet();
+        }
+
+        @Override
+        public void onRetryAuthentication() {
+        }
+    }
+
+    private static final class LoadController
+            extends OperatorGoogleAuthenticationController<CountingListener> {
+
+        private LoadController(final CountingListener listener) {
+            super(listener, 0);
+        }
+
+        @Override
+        protected void startActivityForResult(final CountingListener androidComponent,
+                                              final Intent intent, final int requestCode) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Activity getActivity(final CountingListener androidComponent) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.dpsm.android.auth;
+
+import android.content.ComponentCallbacks2;
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenMemoryTrimmerTest extends TestCase {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private GoogleOAuthTokenCache mCache;
+
+    private GoogleOAuthTokenMainThreadMonitor mMonitor;
+
+    private GoogleOAuthTokenMemoryTrimmer mTrimmer;
+
+    @Before
+    public void setUp() {
+        // Cache timestamps are taken from SystemClock below, as on a device.
+        GoogleOAuthTokenAndroidClock.install();
+        mCache = new GoogleOAuthTokenCache();
+        mMonitor = new GoogleOAuthTokenMainThreadMonitor();
+        mTrimmer = new GoogleOAuthTokenMemoryTrimmer(mCache, mMonitor);
+
+        final long now = SystemClock.elapsedRealtime();
+        mCache.getEntry("com.google", "oauth2:a").setToken("old_a", now - HOUR);
+        mCache.getEntry("com.google", "oauth2:b").setToken("new_b", now);
+        mCache.getEntry("someone", "oauth2:a").setToken("old_someone", now - HOUR);
+        mMonitor.record();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNullCacheWhenCreatedThenThrows() {
+        new GoogleOAuthTokenMemoryTrimmer(null, mMonitor);
+    }
+
+    @Test
+    public void givenUiHiddenWhenTrimmedThenNothingReleased() {
+        assertEquals(0, mTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals("old_a", mCache.getToken("com.google", "oauth2:a"));
+        assertEquals(1, mMonitor.getCallSites().size());
+    }
+
+    @Test
+    public void givenBackgroundWhenTrimmedThenStaleTokensReleased() {
+        assertEquals(3, mTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+
+        assertNull(mCache.getToken("com.google", "oauth2:a"));
+        assertNull(mCache.getToken("someone", "oauth2:a"));
+        assertEquals("new_b", mCache.getToken("com.google", "oauth2:b"));
+        assertTrue(mMonitor.getCallSites().isEmpty());
+        assertEquals(2, mTrimmer.getReleasedTokenCount());
+        assertEquals(1, mTrimmer.getReleasedCallSiteCount());
+    }
+
+    @Test
+    public void givenModerateWhenTrimmedThenNewestTokenOfEachAccountKept() {
+        mCache.getEntry("com.google", "oauth2:c").setToken("older_c",
+                SystemClock.elapsedRealtime() - 1);
+
+        mTrimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        assertEquals("new_b", mCache.getToken("com.google", "oauth2:b"));
+        assertEquals("old_someone", mCache.getToken("someone", "oauth2:a"));
+        assertNull(mCache.getToken("com.google", "oauth2:a"));
+        assertNull(mCache.getToken("com.google", "oauth2:c"));
+        assertEquals(2, mTrimmer.getReleasedTokenCount());
+    }
+
+    @Test
+    public void givenLowMemoryThenAllTokensReleased() {
+        assertEquals(4, mTrimmer.onLowMemory());
+
+        assertNull(mCache.getToken("com.google", "oauth2:b"));
+        assertEquals(3, mTrimmer.getReleasedTokenCount());
+    }
+
+    @Test
+    public void givenTrimmerWhenRegisteredTwiceThenRegisteredOnce() {
+        assertTrue(mTrimmer.register(Robolectric.application));
+        assertFalse(mTrimmer.register(Robolectric.application));
+    }
+}
@@ -2,21 +2,35 @@ package com.github.dpsm.android.auth;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.os.SystemClock;
 
 import com.google.android.gms.auth.UserRecoverableAuthException;
 
 import junit.framework.TestCase;
 
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import rx.Observable;
 import rx.Observer;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
@@ -26,6 +40,12 @@ public class GoogleOAuthTokenOnSubscribeTest extends TestCase {
 
     public static final String TOKEN = "token_token";
 
+    @Before
+    public void setUp() {
+        // Cache timestamps are taken from SystemClock below, as on a device.
+        GoogleOAuthTokenAndroidClock.install();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void givenNullArgumentsThrows() {
         new GoogleOAuthTokenOnSubscribe(null, null, null);
@@ -80,6 +100,472 @@ public class GoogleOAuthTokenOnSubscribeTest extends TestCase {
         Mockito.verify(observer).onError(throwable);
     }
 
+    @Test
+    public void givenDeadlineWhenTokenCallBlocksThenTimeoutEmittedAndCallInterrupted() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+        onSubscribe.setExecutor(executor);
+        onSubscribe.setTimeout(50, TimeUnit.MILLISECONDS);
+
+        final BlockingAnswer answer = new BlockingAnswer();
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final Observer<String> observer = Mockito.mock(StringObserver.class);
+        Observable.create(onSubscribe).subscribe(observer);
+
+        Mockito.verify(observer, Mockito.timeout(2000))
+                .onError(Matchers.isA(GoogleOAuthTokenTimeoutException.class));
+        assertTrue(answer.mInterrupted.await(2, TimeUnit.SECONDS));
+        Mockito.verify(observer, Mockito.never()).onNext(Matchers.anyString());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void givenDeadlineWhenUnsubscribedThenCallInterruptedAndNothingEmitted() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+        onSubscribe.setExecutor(executor);
+        onSubscribe.setTimeout(10, TimeUnit.SECONDS);
+
+        final BlockingAnswer answer = new BlockingAnswer();
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final Observer<String> observer = Mockito.mock(StringObserver.class);
+        final Subscription subscription = Observable.create(onSubscribe).subscribe(observer);
+        assertTrue(answer.mStarted.await(2, TimeUnit.SECONDS));
+        subscription.unsubscribe();
+
+        assertTrue(answer.mInterrupted.await(2, TimeUnit.SECONDS));
+        Mockito.verify(observer, Mockito.never()).onNext(Matchers.anyString());
+        Mockito.verify(observer, Mockito.never()).onError(Matchers.any(Throwable.class));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void givenUnsubscribedSubscriberWhenSubscribedThenTokenNeverFetched() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        subscriber.unsubscribe();
+        onSubscribe.call(subscriber);
+
+        Mockito.verify(onSubscribe, Mockito.never()).getToken();
+        assertTrue(subscriber.getOnNextEvents().isEmpty());
+    }
+
+    @Test
+    public void givenExecutorBusyWhenQueuedSubscriberUnsubscribesThenCallDropped() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+        onSubscribe.setExecutor(executor);
+
+        final BlockingAnswer answer = new BlockingAnswer();
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final Observable<String> observable = Observable.create(onSubscribe);
+        final Subscription running = observable.subscribe(Mockito.mock(StringObserver.class));
+        assertTrue(answer.mStarted.await(2, TimeUnit.SECONDS));
+
+        final Subscription queued = observable.subscribe(Mockito.mock(StringObserver.class));
+        assertEquals(1, executor.getQueue().size());
+        queued.unsubscribe();
+        assertEquals(0, executor.getQueue().size());
+
+        running.unsubscribe();
+        Mockito.verify(onSubscribe, Mockito.times(1)).getToken();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void givenStaleWhileRevalidateWhenTokenWithinGraceThenServedAndRevalidatedOnce() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken("stale_token",
+                SystemClock.elapsedRealtime() - TimeUnit.MINUTES.toMillis(50));
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        onSubscribe.setExecutor(executor);
+        onSubscribe.setStaleWhileRevalidate(1, TimeUnit.HOURS);
+
+        final BlockingAnswer answer = new BlockingAnswer();
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final Observable<String> observable = Observable.create(onSubscribe);
+        final Observer<String> first = Mockito.mock(StringObserver.class);
+        final Observer<String> second = Mockito.mock(StringObserver.class);
+        observable.subscribe(first);
+        observable.subscribe(second);
+
+        Mockito.verify(first).onNext("stale_token");
+        Mockito.verify(second).onNext("stale_token");
+        assertTrue(answer.mStarted.await(2, TimeUnit.SECONDS));
+        executor.shutdownNow();
+
+        assertTrue(answer.mInterrupted.await(2, TimeUnit.SECONDS));
+        Mockito.verify(onSubscribe, Mockito.times(1)).getToken();
+    }
+
+    @Test
+    public void givenStaleWhileRevalidateWhenTokenFreshThenServedWithoutRevalidation() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken("fresh_token");
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        onSubscribe.setStaleWhileRevalidate(1, TimeUnit.HOURS);
+
+        final Observer<String> observer = Mockito.mock(StringObserver.class);
+        Observable.create(onSubscribe).subscribe(observer);
+
+        Mockito.verify(observer).onNext("fresh_token");
+        Mockito.verify(onSubscribe, Mockito.never()).getToken();
+        assertTrue(cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).beginRevalidation());
+    }
+
+    @Test
+    public void givenStaleWhileRevalidateWhenExecutorShutDownThenRevalidationEnded() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        final GoogleOAuthTokenCache.Entry entry = cache.getEntry("com.google", GOOGLE_PRINT_SCOPE);
+        entry.setToken("stale_token", SystemClock.elapsedRealtime() - TimeUnit.MINUTES.toMillis(50));
+        final GoogleOAuthTokenOnSubscribe onSubscribe = new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache);
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        executor.shutdown();
+        onSubscribe.setExecutor(executor);
+        onSubscribe.setStaleWhileRevalidate(1, TimeUnit.HOURS);
+
+        final Observer<String> observer = Mockito.mock(StringObserver.class);
+        Observable.create(onSubscribe).subscribe(observer);
+
+        Mockito.verify(observer).onNext("stale_token");
+        assertTrue(entry.beginRevalidation());
+    }
+
+    @Test
+    public void givenStaleWhileRevalidateWhenTokenOutsideGraceThenTokenFetched() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken("stale_token",
+                SystemClock.elapsedRealtime() - TimeUnit.HOURS.toMillis(2));
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        onSubscribe.setStaleWhileRevalidate(1, TimeUnit.HOURS);
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+
+        final Observer<String> observer = Mockito.mock(StringObserver.class);
+        Observable.create(onSubscribe).subscribe(observer);
+
+        Mockito.verify(observer).onNext(TOKEN);
+        Mockito.verify(observer, Mockito.never()).onNext("stale_token");
+        assertEquals(TOKEN, onSubscribe.getCachedToken());
+    }
+
+    @Test
+    public void givenRateLimitExceededWhenRejectPolicyThenRateLimitErrorEmitted() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        onSubscribe.setRateLimiter(new GoogleOAuthTokenRateLimiter(0.001, 1, 100, 100,
+                GoogleOAuthTokenRateLimiter.Policy.REJECT));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+
+        final Observable<String> observable = Observable.create(onSubscribe);
+        final Observer<String> first = Mockito.mock(StringObserver.class);
+        final Observer<String> second = Mockito.mock(StringObserver.class);
+        observable.subscribe(first);
+        observable.subscribe(second);
+
+        Mockito.verify(first).onNext(TOKEN);
+        Mockito.verify(second).onError(Matchers.isA(GoogleOAuthTokenRateLimitException.class));
+        Mockito.verify(onSubscribe, Mockito.times(1)).getToken();
+    }
+
+    @Test(expected = GoogleOAuthTokenRateLimitException.class)
+    public void givenRateLimiterWhenForScopeThenRateLimiterShared() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE,
+                new GoogleOAuthTokenCache());
+        final GoogleOAuthTokenRateLimiter rateLimiter = new GoogleOAuthTokenRateLimiter(0.001, 1,
+                100, 100, GoogleOAuthTokenRateLimiter.Policy.REJECT);
+        onSubscribe.setRateLimiter(rateLimiter);
+        assertTrue(rateLimiter.tryAcquire("com.google"));
+
+        onSubscribe.forScope("oauth2:https://www.googleapis.com/auth/drive")
+                .getToken(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void givenRateLimitExceededWhenDelayPolicyThenTokenEmittedLater() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        onSubscribe.setRateLimiter(new GoogleOAuthTokenRateLimiter(10, 1, 100, 100,
+                GoogleOAuthTokenRateLimiter.Policy.DELAY));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+
+        final Observable<String> observable = Observable.create(onSubscribe);
+        final Observer<String> first = Mockito.mock(StringObserver.class);
+        final Observer<String> second = Mockito.mock(StringObserver.class);
+        observable.subscribe(first);
+        observable.subscribe(second);
+
+        Mockito.verify(first).onNext(TOKEN);
+        Mockito.verify(second, Mockito.never()).onNext(TOKEN);
+        Mockito.verify(second, Mockito.timeout(2000)).onNext(TOKEN);
+    }
+
+    @Test
+    public void givenOffloadPolicyWhenSubscribedOnMainThreadThenCallRecordedAndRunOffMainThread()
+            throws Exception {
+        final GoogleOAuthTokenMainThreadMonitor monitor = GoogleOAuthTokenMainThreadMonitor.getDefault();
+        assertTrue(monitor.isMainThread());
+        final int count = monitor.getCount();
+        final ThreadRecordingAnswer answer = new ThreadRecordingAnswer();
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        onSubscribe.setMainThreadPolicy(GoogleOAuthTokenMainThreadPolicy.OFFLOAD);
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        Observable.create(onSubscribe).subscribe(subscriber);
+        subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS);
+
+        subscriber.assertReceivedOnNext(Collections.singletonList(TOKEN));
+        assertNotSame(Thread.currentThread(), answer.mThread);
+        assertEquals(count + 1, monitor.getCount());
+        assertFalse(monitor.getCallSites().isEmpty());
+    }
+
+    @Test
+    public void givenAllowPolicyWhenSubscribedOnMainThreadThenCallRecordedAndRunInPlace()
+            throws Exception {
+        final GoogleOAuthTokenMainThreadMonitor monitor = GoogleOAuthTokenMainThreadMonitor.getDefault();
+        final int count = monitor.getCount();
+        final ThreadRecordingAnswer answer = new ThreadRecordingAnswer();
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE));
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        Observable.create(onSubscribe).subscribe(subscriber);
+
+        subscriber.assertReceivedOnNext(Collections.singletonList(TOKEN));
+        assertSame(Thread.currentThread(), answer.mThread);
+        assertEquals(count + 1, monitor.getCount());
+    }
+
+    @Test
+    public void givenKnownTokenWhenBlockingGetTokenThenReturnedWithoutCall() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+
+        assertEquals(TOKEN, onSubscribe.getToken(1, TimeUnit.SECONDS));
+        assertEquals(TOKEN, onSubscribe.getTokenAsync().get());
+        Mockito.verify(onSubscribe, Mockito.never()).getToken();
+    }
+
+    @Test
+    public void givenUnknownTokenWhenBlockingGetTokenThenFetchedAndCached() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+
+        assertEquals(TOKEN, onSubscribe.getToken(0, TimeUnit.SECONDS));
+        assertEquals(TOKEN, onSubscribe.getToken(0, TimeUnit.SECONDS));
+        assertEquals(TOKEN, cache.getToken("com.google", GOOGLE_PRINT_SCOPE));
+        Mockito.verify(onSubscribe, Mockito.times(1)).getToken();
+    }
+
+    @Test
+    public void givenConcurrentCallersWhenTokenUnknownThenSingleCallShared() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        onSubscribe.setExecutor(new GoogleOAuthTokenExecutor(2));
+        final GatedAnswer answer = new GatedAnswer();
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        final Future<String> first = onSubscribe.getTokenAsync();
+        final Future<String> second = onSubscribe.getTokenAsync();
+        assertTrue(answer.mStarted.await(2, TimeUnit.SECONDS));
+        assertSame(first, second);
+        assertFalse(first.cancel(true));
+
+        answer.mRelease.countDown();
+        assertEquals(TOKEN, first.get(2, TimeUnit.SECONDS));
+        assertEquals(TOKEN, onSubscribe.getToken(2, TimeUnit.SECONDS));
+        Mockito.verify(onSubscribe, Mockito.times(1)).getToken();
+    }
+
+    @Test
+    public void givenTokenCallBlocksWhenBlockingGetTokenTimesOutThenCallKeptForNextCaller()
+            throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        final GatedAnswer answer = new GatedAnswer();
+        Mockito.doAnswer(answer).when(onSubscribe).getToken();
+
+        try {
+            onSubscribe.getToken(50, TimeUnit.MILLISECONDS);
+            fail("Expected a timeout.");
+        } catch (GoogleOAuthTokenTimeoutException e) {
+            // Expected.
+        }
+
+        answer.mRelease.countDown();
+        assertEquals(TOKEN, onSubscribe.getToken(2, TimeUnit.SECONDS));
+        Mockito.verify(onSubscribe, Mockito.times(1)).getToken();
+    }
+
+    @Test
+    public void givenTokenCallFailsWhenBlockingGetTokenThenErrorThrown() throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        final IOException error = new IOException();
+        Mockito.doThrow(error).when(onSubscribe).getToken();
+
+        try {
+            onSubscribe.getToken(0, TimeUnit.SECONDS);
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertSame(error, e);
+        }
+
+        try {
+            onSubscribe.getTokenAsync().get(2, TimeUnit.SECONDS);
+            fail("Expected an ExecutionException.");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void givenExecutorShutDownWhenTokenCallRejectedThenNextCallerStartsNewCall()
+            throws Exception {
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(1);
+        executor.shutdown();
+        onSubscribe.setExecutor(executor);
+
+        try {
+            onSubscribe.getTokenAsync();
+            fail("Expected a RejectedExecutionException.");
+        } catch (RejectedExecutionException e) {
+            // Expected.
+        }
+
+        final Observer<String> observer = Mockito.mock(StringObserver.class);
+        Observable.create(onSubscribe).subscribe(observer);
+        Mockito.verify(observer).onError(Mockito.any(RejectedExecutionException.class));
+
+        onSubscribe.setExecutor(new GoogleOAuthTokenExecutor(1));
+        assertEquals(TOKEN, onSubscribe.getTokenAsync().get(2, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = GoogleOAuthTokenRateLimitException.class)
+    public void givenRateLimitExceededWhenBlockingGetTokenThenRateLimitErrorThrown()
+            throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        onSubscribe.setRateLimiter(new GoogleOAuthTokenRateLimiter(0.001, 1, 100, 100,
+                GoogleOAuthTokenRateLimiter.Policy.REJECT));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+
+        assertEquals(TOKEN, onSubscribe.getToken(0, TimeUnit.SECONDS));
+        cache.clear();
+        onSubscribe.getToken(0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void givenTracedRequestWhenUnsubscribedThenAsyncSectionEndedOnce() {
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        final CountingTracedSubscriber traced = new CountingTracedSubscriber(subscriber);
+
+        subscriber.unsubscribe();
+        traced.onError(new IOException());
+
+        assertEquals(1, traced.mEnded);
+        assertTrue(traced.isUnsubscribed());
+    }
+
+    @Test
+    public void givenTracedRequestWhenErrorEmittedThenAsyncSectionEndedOnce() {
+        final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+        final CountingTracedSubscriber traced = new CountingTracedSubscriber(subscriber);
+        final Throwable throwable = new IOException();
+
+        traced.onError(throwable);
+        subscriber.unsubscribe();
+
+        assertEquals(1, traced.mEnded);
+        assertEquals(Collections.singletonList(throwable), subscriber.getOnErrorEvents());
+    }
+
+    private static final class CountingTracedSubscriber
+            extends GoogleOAuthTokenOnSubscribe.TracedSubscriber {
+
+        private int mEnded;
+
+        private CountingTracedSubscriber(final TestSubscriber<String> subscriber) {
+            super(subscriber, 1);
+        }
+
+        @Override
+        void endSection(final int cookie) {
+            assertEquals(1, cookie);
+            mEnded++;
+        }
+    }
+
+    private static final class GatedAnswer implements Answer<String> {
+
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+
+        @Override
+        public String answer(final InvocationOnMock invocation) throws Throwable {
+            mStarted.countDown();
+            mRelease.await();
+            return TOKEN;
+        }
+    }
+
+    private static final class ThreadRecordingAnswer implements Answer<String> {
+
+        private volatile Thread mThread;
+
+        @Override
+        public String answer(final InvocationOnMock invocation) throws Throwable {
+            mThread = Thread.currentThread();
+            return TOKEN;
+        }
+    }
+
+    private static final class BlockingAnswer implements Answer<String> {
+
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+
+        private final CountDownLatch mInterrupted = new CountDownLatch(1);
+
+        @Override
+        public String answer(final InvocationOnMock invocation) throws Throwable {
+            mStarted.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                mInterrupted.countDown();
+            }
+            return TOKEN;
+        }
+    }
+
     private static abstract class StringObserver implements Observer<String> {
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenRateLimiterTest extends TestCase {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenNonPositiveRateWhenCreatedThenThrows() {
+        new GoogleOAuthTokenRateLimiter(0, 1, 1, 1, GoogleOAuthTokenRateLimiter.Policy.DELAY);
+    }
+
+    @Test
+    public void givenBurstAvailableWhenReservedThenNoDelay() {
+        final FakeClockRateLimiter limiter = new FakeClockRateLimiter(1, 2, 10, 10,
+                GoogleOAuthTokenRateLimiter.Policy.DELAY);
+
+        assertEquals(0, limiter.reserve("someone"));
+        assertEquals(0, limiter.reserve("someone"));
+        assertEquals(0, limiter.getDelayedCount());
+    }
+
+    @Test
+    public void givenAccountBurstExhaustedWhenDelayPolicyThenDelaysQueueUp() {
+        final FakeClockRateLimiter limiter = new FakeClockRateLimiter(1, 1, 10, 10,
+                GoogleOAuthTokenRateLimiter.Policy.DELAY);
+
+        assertEquals(0, limiter.reserve("someone"));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.reserve("someone"));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), limiter.reserve("someone"));
+        assertEquals(0, limiter.reserve("another"));
+
+        assertEquals(2, limiter.getDelayedCount());
+        assertEquals(3, limiter.getTotalWait(TimeUnit.SECONDS));
+        assertEquals(2, limiter.getMaxWait(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void givenGlobalBurstExhaustedWhenRejectPolicyThenRejected() {
+        final FakeClockRateLimiter limiter = new FakeClockRateLimiter(10, 10, 1, 1,
+                GoogleOAuthTokenRateLimiter.Policy.REJECT);
+
+        assertEquals(0, limiter.reserve("someone"));
+        assertEquals(GoogleOAuthTokenRateLimiter.REJECTED, limiter.reserve("another"));
+        assertEquals(1, limiter.getRejectedCount());
+
+        limiter.mNow += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(0, limiter.reserve("another"));
+    }
+
+    @Test
+    public void givenPermitsDelayedWhenTryAcquireThenFalse() {
+        final FakeClockRateLimiter limiter = new FakeClockRateLimiter(1, 1, 10, 10,
+                GoogleOAuthTokenRateLimiter.Policy.DELAY);
+
+        assertTrue(limiter.tryAcquire("someone"));
+        assertFalse(limiter.tryAcquire("someone"));
+    }
+
+    @Test
+    public void givenPermitReleasedWhenTryAcquireThenTrue() {
+        final FakeClockRateLimiter limiter = new FakeClockRateLimiter(1, 1, 10, 10,
+                GoogleOAuthTokenRateLimiter.Policy.DELAY);
+
+        assertTrue(limiter.tryAcquire("someone"));
+        limiter.release("someone");
+        assertTrue(limiter.tryAcquire("someone"));
+        assertFalse(limiter.tryAcquire("someone"));
+    }
+
+    private static final class FakeClockRateLimiter extends GoogleOAuthTokenRateLimiter {
+
+        private long mNow;
+
+        private FakeClockRateLimiter(final double accountPermitsPerSecond, final int accountBurst,
+                                     final double globalPermitsPerSecond, final int globalBurst,
+                                     final Policy policy) {
+            super(accountPermitsPerSecond, accountBurst, globalPermitsPerSecond, globalBurst,
+                    policy);
+        }
+
+        @Override
+        long now() {
+            return mNow;
+        }
+    }
+}
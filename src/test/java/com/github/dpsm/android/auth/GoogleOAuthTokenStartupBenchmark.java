@@ -0,0 +1,215 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time an application spends loading the library on cold start against a baseline
+ * which also loads Google Play services up front, the way it did before the library deferred them
+ * to their first use. Each iteration loads the library and Google Play services classes in a
+ * fresh class loader so that nothing loaded by an earlier iteration is reused.
+ * <br/>
+ * Appends one JSON line to the benchmark.startupOutput file so that results can be trended.
+ * Excluded from the default build, run with: mvn test -P benchmark [-Dbenchmark.iterations=..]
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenStartupBenchmark extends TestCase {
+
+    @Test
+    public void givenDeferredPlayServicesWhenLibraryLoadedThenFasterThanEagerBaseline()
+            throws Exception {
+        final int iterations = Integer.getInteger("benchmark.iterations", 200);
+        final int warmup = Integer.getInteger("benchmark.warmup", 20);
+
+        final ClassLoader parent = getClass().getClassLoader();
+        final File root = GoogleOAuthTokenStartupTest.findLibraryRoot(parent);
+        final List<String> names = GoogleOAuthTokenStartupTest.findLibraryClasses(root);
+
+        final long[] deferred = new long[iterations];
+        final long[] eager = new long[iterations];
+        final long[] firstUse = new long[iterations];
+        for (int i = 0; i < warmup + iterations; i++) {
+            final long deferredNanos = loadLibrary(new IsolatingClassLoader(parent, root), names,
+                    false);
+            final long eagerNanos = loadLibrary(new IsolatingClassLoader(parent, root), names,
+                    true);
+
+            final IsolatingClassLoader lazyLoader = new IsolatingClassLoader(parent, root);
+            loadLibrary(lazyLoader, names, false);
+            final long start = System.nanoTime();
+            usePlayServices(lazyLoader);
+            final long firstUseNanos = System.nanoTime() - start;
+
+            if (i >= warmup) {
+                deferred[i - warmup] = deferredNanos;
+                eager[i - warmup] = eagerNanos;
+                firstUse[i - warmup] = firstUseNanos;
+            }
+        }
+
+        Arrays.sort(deferred);
+        Arrays.sort(eager);
+        Arrays.sort(firstUse);
+        final Report report = new Report(warmup, deferred, eager, firstUse);
+        report.appendTo(new File(System.getProperty("benchmark.startupOutput",
+                "target/benchmarks/startup.json")));
+
+        assertTrue("Deferring Google Play services did not speed up startup: " + report.toJson(),
+                report.median(deferred) < report.median(eager));
+    }
+
+    /**
+     * @return the time spent loading and initializing the library classes, and Google Play
+     * services as well when eager.
+     */
+    private static long loadLibrary(final ClassLoader loader, final List<String> names,
+                                    final boolean eager) throws Exception {
+        final long start = System.nanoTime();
+        for (final String name : names) {
+            if (eager || !name.startsWith(GoogleOAuthTokenStartupTest.HOLDER)) {
+                Class.forName(name, true, loader);
+            }
+        }
+
+        if (eager) {
+            usePlayServices(loader);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void usePlayServices(final ClassLoader loader) throws Exception {
+        final Method method = Class.forName(GoogleOAuthTokenStartupTest.HOLDER, true, loader)
+                .getDeclaredMethod("isUserRecoverable", Throwable.class);
+        method.setAccessible(true);
+        assertEquals(Boolean.FALSE, method.invoke(null, new IOException()));
+    }
+
+    /**
+     * Defines the library and Google Play services classes itself, from the bytes the parent
+     * class loader would use, and delegates everything else to the parent class loader.
+     */
+    private static final class IsolatingClassLoader extends ClassLoader {
+
+        private final File mRoot;
+
+        private IsolatingClassLoader(final ClassLoader parent, final File root) {
+            super(parent);
+            mRoot = root;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+                throws ClassNotFoundException {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                final byte[] bytes = isIsolated(name) ? read(name) : null;
+                if (bytes != null) {
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                } else {
+                    loaded = getParent().loadClass(name);
+                }
+            }
+
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+
+        private boolean isIsolated(final String name) {
+            return name.startsWith(GoogleOAuthTokenStartupTest.PLAY_SERVICES_PACKAGE)
+                    || (name.startsWith(GoogleOAuthTokenStartupTest.LIBRARY_PACKAGE)
+                    && new File(mRoot, name.replace('.', '/') + ".class").isFile());
+        }
+
+        private byte[] read(final String name) throws ClassNotFoundException {
+            final InputStream in = getParent().getResourceAsStream(
+                    name.replace('.', '/') + ".class");
+            if (in == null) {
+                return null;
+            }
+
+            try {
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    private static final class Report {
+
+        private final int mWarmup;
+
+        private final long[] mSortedDeferred;
+
+        private final long[] mSortedEager;
+
+        private final long[] mSortedFirstUse;
+
+        private Report(final int warmup, final long[] sortedDeferred, final long[] sortedEager,
+                       final long[] sortedFirstUse) {
+            mWarmup = warmup;
+            mSortedDeferred = sortedDeferred;
+            mSortedEager = sortedEager;
+            mSortedFirstUse = sortedFirstUse;
+        }
+
+        private long median(final long[] sortedNanos) {
+            return TimeUnit.NANOSECONDS.toMicros(sortedNanos[sortedNanos.length / 2]);
+        }
+
+        private void appendTo(final File file) throws IOException {
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can not create " + directory + ".");
+            }
+
+            final Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(toJson());
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        }
+
+        private String toJson() {
+            return "{\"benchmark\":\"startup\""
+                    + ",\"timestamp\":" + System.currentTimeMillis()
+                    + ",\"iterations\":" + mSortedDeferred.length
+                    + ",\"warmup\":" + mWarmup
+                    + ",\"libraryP50Us\":" + median(mSortedDeferred)
+                    + ",\"eagerBaselineP50Us\":" + median(mSortedEager)
+                    + ",\"savedP50Us\":" + (median(mSortedEager) - median(mSortedDeferred))
+                    + ",\"firstUseP50Us\":" + median(mSortedFirstUse)
+                    + "}";
+        }
+    }
+}
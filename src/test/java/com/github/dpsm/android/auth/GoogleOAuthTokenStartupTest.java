@@ -0,0 +1,166 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads, verifies and initializes the library classes in a fresh class loader, the way an
+ * application does on cold start, and records which classes they pull in from outside the
+ * library. Google Play services classes must only be loaded on their first use.
+ *
+ * @see GoogleOAuthTokenStartupBenchmark
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class GoogleOAuthTokenStartupTest extends TestCase {
+
+    static final String LIBRARY_PACKAGE = "com.github.dpsm.android.";
+
+    static final String PLAY_SERVICES_PACKAGE = "com.google.android.gms.";
+
+    static final String HOLDER = GooglePlayServices.class.getName();
+
+    @Test
+    public void givenLibraryClassesWhenLoadedThenNoPlayServicesClassLoaded() throws Exception {
+        final ClassLoader parent = getClass().getClassLoader();
+        final RecordingClassLoader loader = new RecordingClassLoader(parent,
+                findLibraryRoot(parent));
+
+        for (final String name : findLibraryClasses(loader.mRoot)) {
+            if (!name.startsWith(HOLDER)) {
+                Class.forName(name, true, loader);
+            }
+        }
+
+        assertEquals(Collections.<String>emptyList(), loader.getDelegated(PLAY_SERVICES_PACKAGE));
+
+        final Method method = Class.forName(HOLDER, true, loader)
+                .getDeclaredMethod("isUserRecoverable", Throwable.class);
+        method.setAccessible(true);
+        assertEquals(Boolean.FALSE, method.invoke(null, new IOException()));
+
+        assertFalse(loader.getDelegated(PLAY_SERVICES_PACKAGE).isEmpty());
+    }
+
+    /**
+     * @return the directory holding the compiled library classes.
+     */
+    static File findLibraryRoot(final ClassLoader loader) {
+        final String resource = GoogleOAuthTokenOnSubscribe.class.getName()
+                .replace('.', '/') + ".class";
+        final File file = new File(loader.getResource(resource).getPath());
+        File root = file.getParentFile();
+        for (int i = resource.split("/").length - 1; i > 0; i--) {
+            root = root.getParentFile();
+        }
+        return root;
+    }
+
+    /**
+     * @return the names of the library classes found in the specified directory.
+     */
+    static List<String> findLibraryClasses(final File root) {
+        final List<String> names = new ArrayList<String>();
+        collectClasses(new File(root, LIBRARY_PACKAGE.replace('.', '/')), LIBRARY_PACKAGE, names);
+        return names;
+    }
+
+    private static void collectClasses(final File directory, final String prefix,
+                                       final List<String> names) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                collectClasses(file, prefix + file.getName() + '.', names);
+            } else if (file.getName().endsWith(".class")) {
+                final String name = file.getName();
+                names.add(prefix + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    /**
+     * Defines the library classes itself and records every other class requested from the
+     * parent class loader.
+     */
+    private static final class RecordingClassLoader extends ClassLoader {
+
+        private final File mRoot;
+
+        private final Set<String> mDelegated = new HashSet<String>();
+
+        private RecordingClassLoader(final ClassLoader parent, final File root) {
+            super(parent);
+            mRoot = root;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+                throws ClassNotFoundException {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                final File file = new File(mRoot, name.replace('.', '/') + ".class");
+                if (name.startsWith(LIBRARY_PACKAGE) && file.isFile()) {
+                    final byte[] bytes = read(file);
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                } else {
+                    mDelegated.add(name);
+                    loaded = getParent().loadClass(name);
+                }
+            }
+
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+
+        private synchronized List<String> getDelegated(final String prefix) {
+            final List<String> names = new ArrayList<String>();
+            for (final String name : mDelegated) {
+                if (name.startsWith(prefix)) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+
+        private static byte[] read(final File file) throws ClassNotFoundException {
+            try {
+                final InputStream in = new FileInputStream(file);
+                try {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(file.getPath(), e);
+            }
+        }
+    }
+}
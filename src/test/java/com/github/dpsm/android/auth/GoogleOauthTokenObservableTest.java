@@ -3,10 +3,15 @@ package com.github.dpsm.android.auth;
 import android.app.Activity;
 import android.app.Fragment;
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.v4.app.FragmentActivity;
 
+import com.github.dpsm.android.auth.activity.OperatorGoogleAuthenticationActivityController;
+
 import junit.framework.TestCase;
 
+import org.junit.Assume;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -14,14 +19,29 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action1;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
 public class GoogleOauthTokenObservableTest extends TestCase {
 
     private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
 
+    private static final String GOOGLE_DRIVE_SCOPE = "oauth2:https://www.googleapis.com/auth/drive";
+
     public static final String TOKEN = "token_token";
 
+    @Before
+    public void setUp() {
+        // Cache timestamps are taken from SystemClock below, as on a device.
+        GoogleOAuthTokenAndroidClock.install();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void givenNullContextWhenCreateCalledThrowsException() throws Exception {
         GoogleOauthTokenObservable.create((Context) null, null, null);
@@ -126,4 +146,233 @@ public class GoogleOauthTokenObservableTest extends TestCase {
         observable.authenticateUsing((android.support.v4.app.Fragment) null, 0);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void givenControllerWhenAuthenticateCalledTwiceThenSameObservableReturned() throws Exception {
+        final GoogleOauthTokenObservable observable = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        final OperatorGoogleAuthenticationActivityController controller =
+                new OperatorGoogleAuthenticationActivityController(createListenerActivity(), 0);
+
+        assertSame(observable.authenticateUsing(controller),
+                observable.authenticateUsing(controller));
+    }
+
+    @Test
+    public void givenCachedTokenWhenAuthenticatedThenTokenDeliveredWithoutFetching() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        final GoogleOauthTokenObservable observable = new GoogleOauthTokenObservable(onSubscribe);
+        final ListenerActivity activity = createListenerActivity();
+        final CountingSubscriber subscriber = new CountingSubscriber();
+
+        observable.authenticateUsing(activity, 0).unsafeSubscribe(subscriber);
+
+        Mockito.verify(onSubscribe, Mockito.never()).getToken();
+        assertEquals(TOKEN, activity.mToken);
+        assertEquals(1, subscriber.mNextCount);
+        assertEquals(1, subscriber.mCompletedCount);
+    }
+
+    @Test
+    public void givenCachedTokenWhenAuthenticatedOffMainThreadThenTokenDeliveredThroughBinding()
+            throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+        final GoogleOauthTokenObservable observable = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_PRINT_SCOPE, cache));
+        final CountingController controller = new CountingController(createListenerActivity());
+        final CountingSubscriber subscriber = new CountingSubscriber();
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                observable.authenticateUsing(controller).unsafeSubscribe(subscriber);
+                observable.authenticateUsing(controller).unsafeSubscribe(subscriber);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(1, controller.mBindCount);
+        assertEquals(2, controller.mDeliveredCount);
+        assertEquals(2, subscriber.mNextCount);
+    }
+
+    @Test
+    public void givenCachedTokenWhenAuthenticatedOnMainThreadThenTokenDeliveredRightAway()
+            throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+        final GoogleOauthTokenObservable observable = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_PRINT_SCOPE, cache));
+        final ListenerActivity activity = createListenerActivity();
+        final CountingController controller = new CountingController(activity);
+        final CountingSubscriber subscriber = new CountingSubscriber();
+
+        observable.authenticateUsing(controller).unsafeSubscribe(subscriber);
+        observable.authenticateUsing(controller).unsafeSubscribe(subscriber);
+
+        assertEquals(0, controller.mDeliveredCount);
+        assertEquals(TOKEN, activity.mToken);
+        assertEquals(2, subscriber.mNextCount);
+        assertEquals(2, subscriber.mCompletedCount);
+    }
+
+    @Test
+    public void givenCachedTokenWhenAuthenticatedWithReusedControllerThenNothingAllocated()
+            throws Exception {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+        final GoogleOauthTokenObservable observable = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_PRINT_SCOPE, cache));
+        final OperatorGoogleAuthenticationActivityController controller =
+                new OperatorGoogleAuthenticationActivityController(createListenerActivity(), 0);
+        final CountingSubscriber subscriber = new CountingSubscriber();
+        final int iterations = 10000;
+        for (int i = 0; i < iterations; i++) {
+            observable.authenticateUsing(controller).unsafeSubscribe(subscriber);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            observable.authenticateUsing(controller).unsafeSubscribe(subscriber);
+        }
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(2 * iterations, subscriber.mNextCount);
+        // Allow a small constant for the measurement itself, far below one object per call.
+        assertTrue("Allocated " + allocated + " bytes", allocated < iterations);
+    }
+
+    @Test
+    public void givenSourcesWhenAuthenticatedAlternatelyThenEachObservableReused()
+            throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        final GoogleOauthTokenObservable print = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_PRINT_SCOPE, cache));
+        final GoogleOauthTokenObservable drive = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_DRIVE_SCOPE, cache));
+        final OperatorGoogleAuthenticationActivityController controller =
+                new OperatorGoogleAuthenticationActivityController(createListenerActivity(), 0);
+
+        final Observable<String> first = print.authenticateUsing(controller);
+        drive.authenticateUsing(controller);
+
+        assertSame(first, print.authenticateUsing(controller));
+    }
+
+    @Test
+    public void givenCachedTokenWhenActivityFinishingThenNothingDelivered() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+        final GoogleOauthTokenObservable observable = new GoogleOauthTokenObservable(
+                new GoogleOAuthTokenOnSubscribe(Robolectric.application, "com.google",
+                        GOOGLE_PRINT_SCOPE, cache));
+        final ListenerActivity activity = createListenerActivity();
+        final CountingSubscriber subscriber = new CountingSubscriber();
+        activity.finish();
+
+        observable.authenticateUsing(activity, 0).unsafeSubscribe(subscriber);
+
+        assertNull(activity.mToken);
+        assertEquals(0, subscriber.mNextCount);
+    }
+
+    @Test
+    public void givenExpiredCachedTokenWhenAuthenticatedThenTokenFetched() throws Exception {
+        final GoogleOAuthTokenCache cache = new GoogleOAuthTokenCache();
+        cache.getEntry("com.google", GOOGLE_PRINT_SCOPE).setToken("expired_token",
+                SystemClock.elapsedRealtime() - TimeUnit.HOURS.toMillis(2));
+        final GoogleOAuthTokenOnSubscribe onSubscribe = Mockito.spy(new GoogleOAuthTokenOnSubscribe(
+                Robolectric.application, "com.google", GOOGLE_PRINT_SCOPE, cache));
+        Mockito.doReturn(TOKEN).when(onSubscribe).getToken();
+        final ListenerActivity activity = createListenerActivity();
+
+        new GoogleOauthTokenObservable(onSubscribe).authenticateUsing(activity, 0)
+                .unsafeSubscribe(new CountingSubscriber());
+
+        Mockito.verify(onSubscribe).getToken();
+        assertEquals(TOKEN, activity.mToken);
+    }
+
+    private static ListenerActivity createListenerActivity() {
+        return Robolectric.buildActivity(ListenerActivity.class).create().get();
+    }
+
+    public static class ListenerActivity extends Activity
+            implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
+
+        private String mToken;
+
+        @Override
+        public void onAuthenticationError(final Throwable throwable) {
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(final String token) {
+            mToken = token;
+        }
+
+        @Override
+        public void onRetryAuthentication() {
+        }
+    }
+
+    private static class CountingController extends OperatorGoogleAuthenticationActivityController {
+
+        private int mBindCount;
+
+        private int mDeliveredCount;
+
+        private CountingController(final Activity activity) {
+            super(activity, 0);
+        }
+
+        @Override
+        protected Observable<String> bind(final Activity androidComponent,
+                                          final Observable<String> source) {
+            mBindCount++;
+            return source.doOnNext(new Action1<String>() {
+                @Override
+                public void call(final String token) {
+                    mDeliveredCount++;
+                }
+            });
+        }
+    }
+
+    private static class CountingSubscriber extends Subscriber<String> {
+
+        private int mNextCount;
+
+        private int mCompletedCount;
+
+        @Override
+        public void onCompleted() {
+            mCompletedCount++;
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+        }
+
+        @Override
+        public void onNext(final String token) {
+            mNextCount++;
+        }
+    }
+}
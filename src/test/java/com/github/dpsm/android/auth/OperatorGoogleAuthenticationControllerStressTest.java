@@ -0,0 +1,277 @@
+package com.github.dpsm.android.auth;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+
+/**
+ * Races the deliveries OperatorGoogleAuthenticationController receives on worker threads against
+ * the calls its Android component makes on the main thread, checking that no token is lost or
+ * delivered twice and that the pending request is never seen half written.
+ * <br/>
+ * Excluded from the default build, run with: mvn test -P stress-test [-Dstresstest.iterations=..]
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class OperatorGoogleAuthenticationControllerStressTest extends TestCase {
+
+    private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
+
+    private static final String TOKEN = "token_token";
+
+    private static final int THREADS = 4;
+
+    private static final int ITERATIONS = Integer.getInteger("stresstest.iterations", 2000);
+
+    @Test
+    public void givenConcurrentSubscriptionsWhenTokensDeliveredThenEachDeliveredOnce()
+            throws Exception {
+        final CountingListener listener = new CountingListener();
+        final Observable<String> observable = Observable.create(new FakeTokenOnSubscribe(
+                Robolectric.application, null)).lift(new StressController(listener));
+        final CountingSubscriber[] subscribers = new CountingSubscriber[ITERATIONS * THREADS];
+
+        race(new Actor() {
+            @Override
+            public void act(final int iteration, final int thread) {
+                final CountingSubscriber subscriber = new CountingSubscriber();
+                subscribers[iteration * THREADS + thread] = subscriber;
+                observable.unsafeSubscribe(subscriber);
+            }
+        });
+
+        assertEquals(subscribers.length, listener.mSucceeded.get());
+        assertEquals(0, listener.mFailed.get());
+        for (final CountingSubscriber subscriber : subscribers) {
+            assertEquals(1, subscriber.mTokens.get());
+            assertEquals(1, subscriber.mCompleted.get());
+        }
+    }
+
+    @Test
+    public void givenActivityResultRacingRecoverableErrorWhenSettledThenPendingRequestConsistent()
+            throws Exception {
+        final CountingListener listener = new CountingListener();
+        final StressController controller = new StressController(listener);
+        final Observable<String> observable = new GoogleOauthTokenObservable(
+                new FakeTokenOnSubscribe(Robolectric.application,
+                        new UserRecoverableAuthException("", new Intent())))
+                .authenticateUsing(controller);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            race(1, new Actor() {
+                @Override
+                public void act(final int iteration, final int thread) {
+                    if (thread == 0) {
+                        observable.unsafeSubscribe(new CountingSubscriber());
+                    } else {
+                        controller.handleActivityResult(1, Activity.RESULT_CANCELED, null);
+                    }
+                }
+            });
+
+            final Bundle state = new Bundle();
+            controller.saveInstanceState(state);
+            assertEquals(state.toString(), state.containsKey(pendingKey("ACCOUNT_NAME")),
+                    state.containsKey(pendingKey("SCOPE")));
+            final GoogleOauthTokenObservable pending =
+                    controller.getPendingRequest(Robolectric.application);
+            if (pending != null) {
+                assertEquals("com.google", pending.getAccountName());
+                assertEquals(GOOGLE_PRINT_SCOPE, pending.getScope());
+            }
+            controller.handleActivityResult(1, Activity.RESULT_CANCELED, null);
+        }
+
+        // Every error prompts the user exactly once and is never reported as a failure.
+        assertEquals(ITERATIONS, controller.mStarted.get());
+        assertEquals(0, listener.mFailed.get());
+    }
+
+    @Test
+    public void givenUnsubscribeRacingDeliveryWhenSettledThenTokenDeliveredAtMostOnce()
+            throws Exception {
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(THREADS);
+        final FakeTokenOnSubscribe onSubscribe =
+                new FakeTokenOnSubscribe(Robolectric.application, null);
+        onSubscribe.setExecutor(executor);
+
+        final CountingListener listener = new CountingListener();
+        final Observable<String> observable =
+                Observable.create(onSubscribe).lift(new StressController(listener));
+        final CountingSubscriber[] subscribers = new CountingSubscriber[ITERATIONS * THREADS];
+
+        race(new Actor() {
+            @Override
+            public void act(final int iteration, final int thread) {
+                final CountingSubscriber subscriber = new CountingSubscriber();
+                subscribers[iteration * THREADS + thread] = subscriber;
+                final Subscription subscription = observable.unsafeSubscribe(subscriber);
+                subscription.unsubscribe();
+            }
+        });
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        int delivered = 0;
+        for (final CountingSubscriber subscriber : subscribers) {
+            assertTrue(subscriber.mTokens.get() <= 1);
+            delivered += subscriber.mTokens.get();
+        }
+        assertEquals(0, listener.mFailed.get());
+        assertEquals(delivered, listener.mSucceeded.get());
+    }
+
+    private static String pendingKey(final String name) {
+        return OperatorGoogleAuthenticationController.class.getName() + ".PENDING_" + name + "_1";
+    }
+
+    private static void race(final Actor actor) throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            race(i, actor);
+        }
+    }
+
+    /**
+     * Runs the actor on THREADS threads released at once for the specified iteration.
+     */
+    private static void race(final int iteration, final Actor actor) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final Throwable[] failure = new Throwable[1];
+        final Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                        actor.act(iteration, thread);
+                    } catch (Throwable throwable) {
+                        synchronized (failure) {
+                            failure[0] = throwable;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+    }
+
+    private static interface Actor {
+
+        void act(int iteration, int thread);
+    }
+
+    private static final class FakeTokenOnSubscribe extends GoogleOAuthTokenOnSubscribe {
+
+        private final GoogleAuthException mError;
+
+        private FakeTokenOnSubscribe(final Context context, final GoogleAuthException error) {
+            super(context, "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache());
+            mError = error;
+        }
+
+        @Override
+        public String getToken() throws GoogleAuthException {
+            if (mError != null) {
+                throw mError;
+            }
+            return TOKEN;
+        }
+    }
+
+    private static final class CountingSubscriber extends Subscriber<String> {
+
+        private final AtomicInteger mTokens = new AtomicInteger();
+
+        private final AtomicInteger mCompleted = new AtomicInteger();
+
+        @Override
+        public void onCompleted() {
+            mCompleted.incrementAndGet();
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onNext(final String token) {
+            assertEquals(TOKEN, token);
+            mTokens.incrementAndGet();
+        }
+    }
+
+    private static final class CountingListener
+            implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
+
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+
+        private final AtomicInteger mFailed = new AtomicInteger();
+
+        @Override
+        public void onAuthenticationError(final Throwable throwable) {
+            mFailed.incrementAndGet();
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(final String token) {
+            mSucceeded.incrementAndGet();
+        }
+
+        @Override
+        public void onRetryAuthentication() {
+        }
+    }
+
+    private static final class StressController
+            extends OperatorGoogleAuthenticationController<CountingListener> {
+
+        private final AtomicInteger mStarted = new AtomicInteger();
+
+        private StressController(final CountingListener listener) {
+            super(listener, 0);
+        }
+
+        @Override
+        protected void startActivityForResult(final CountingListener androidComponent,
+                                              final Intent intent, final int requestCode) {
+            mStarted.incrementAndGet();
+        }
+
+        @Override
+        protected Activity getActivity(final CountingListener androidComponent) {
+            return null;
+        }
+    }
+}
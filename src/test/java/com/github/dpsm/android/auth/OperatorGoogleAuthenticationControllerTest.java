@@ -0,0 +1,214 @@
+package com.github.dpsm.android.auth;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import com.google.android.gms.auth.GoogleAuthException;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class OperatorGoogleAuthenticationControllerTest extends TestCase {
+
+    private static final String SCOPE_URL = "https://www.googleapis.com/auth/";
+
+    private static final String ACTION_SCOPE = "scope";
+
+    private static final String ACTION_COMBINED = "combined";
+
+    private TestScheduler mScheduler;
+
+    private RecordingListener mListener;
+
+    private RecordingController mController;
+
+    private ConsentState mConsent;
+
+    @Before
+    public void setUp() {
+        mScheduler = Schedulers.test();
+        mListener = new RecordingListener();
+        mController = new RecordingController(mListener);
+        mController.setConsentSchedulers(mScheduler, mScheduler);
+        mConsent = new ConsentState();
+    }
+
+    @Test
+    public void givenScopesFailingWithinWindowWhenBatchedThenUserAskedOnceForAllScopes() {
+        mController.setConsentBatchWindow(100, TimeUnit.MILLISECONDS);
+        final List<TestSubscriber<String>> subscribers = subscribe("drive", "calendar", "tasks");
+
+        assertTrue(mController.mIntents.isEmpty());
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, mController.mIntents.size());
+        assertEquals(ACTION_COMBINED, mController.mIntents.get(0).getAction());
+        assertEquals("oauth2:" + SCOPE_URL + "calendar " + SCOPE_URL + "drive "
+                + SCOPE_URL + "tasks", mConsent.mCombinedScope);
+
+        mConsent.mGranted = true;
+        assertTrue(mController.handleActivityResult(1, Activity.RESULT_OK, null));
+        mScheduler.triggerActions();
+
+        for (final TestSubscriber<String> subscriber : subscribers) {
+            assertEquals(1, subscriber.getOnNextEvents().size());
+            assertEquals(1, subscriber.getOnCompletedEvents().size());
+        }
+        assertEquals(3, mListener.mTokens.size());
+        assertEquals(0, mListener.mRetries);
+    }
+
+    @Test
+    public void givenSingleScopeWithinWindowWhenBatchedThenItsOwnScreenLaunched() {
+        mController.setConsentBatchWindow(100, TimeUnit.MILLISECONDS);
+        subscribe("drive", "drive");
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, mController.mIntents.size());
+        assertEquals(ACTION_SCOPE, mController.mIntents.get(0).getAction());
+        assertNull(mConsent.mCombinedScope);
+    }
+
+    @Test
+    public void givenCombinedScopesAlreadyGrantedWhenBatchedThenTokensFetchedWithoutUser() {
+        mController.setConsentBatchWindow(100, TimeUnit.MILLISECONDS);
+        final List<TestSubscriber<String>> subscribers = subscribe("drive", "calendar");
+
+        mConsent.mGranted = true;
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        assertTrue(mController.mIntents.isEmpty());
+        for (final TestSubscriber<String> subscriber : subscribers) {
+            assertEquals(1, subscriber.getOnNextEvents().size());
+        }
+    }
+
+    @Test
+    public void givenNoBatchWindowWhenScopesFailThenUserAskedForEachScope() {
+        subscribe("drive", "calendar", "tasks");
+
+        assertEquals(3, mController.mIntents.size());
+        mController.handleActivityResult(1, Activity.RESULT_OK, null);
+        assertEquals(1, mListener.mRetries);
+    }
+
+    private List<TestSubscriber<String>> subscribe(final String... scopes) {
+        final List<TestSubscriber<String>> subscribers = new ArrayList<TestSubscriber<String>>();
+        for (final String scope : scopes) {
+            final TestSubscriber<String> subscriber = new TestSubscriber<String>();
+            new GoogleOauthTokenObservable(new ConsentOnSubscribe(Robolectric.application,
+                    "oauth2:" + SCOPE_URL + scope, mConsent)).authenticateUsing(mController)
+                    .subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+
+    private static final class ConsentState {
+
+        private final Intent mScopeIntent = new Intent(ACTION_SCOPE);
+
+        private final Intent mCombinedIntent = new Intent(ACTION_COMBINED);
+
+        private volatile boolean mGranted;
+
+        private volatile String mCombinedScope;
+    }
+
+    private static final class ConsentOnSubscribe extends GoogleOAuthTokenOnSubscribe {
+
+        private final ConsentState mConsent;
+
+        private final boolean mCombined;
+
+        private ConsentOnSubscribe(final Context context, final String scope,
+                                   final ConsentState consent) {
+            this(context, scope, consent, false);
+        }
+
+        private ConsentOnSubscribe(final Context context, final String scope,
+                                   final ConsentState consent, final boolean combined) {
+            super(context, "com.google", scope, new GoogleOAuthTokenCache());
+            mConsent = consent;
+            mCombined = combined;
+        }
+
+        @Override
+        public String getToken() throws GoogleAuthException {
+            if (!mConsent.mGranted) {
+                throw new UserRecoverableAuthException("", mCombined
+                        ? mConsent.mCombinedIntent : mConsent.mScopeIntent);
+            }
+            return "token " + getScope();
+        }
+
+        @Override
+        GoogleOAuthTokenOnSubscribe forScope(final String scope) {
+            mConsent.mCombinedScope = scope;
+            return new ConsentOnSubscribe(Robolectric.application, scope, mConsent, true);
+        }
+    }
+
+    private static final class RecordingListener
+            implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
+
+        private final List<String> mTokens = new ArrayList<String>();
+
+        private int mRetries;
+
+        @Override
+        public void onAuthenticationError(final Throwable throwable) {
+            fail(throwable.toString());
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(final String token) {
+            mTokens.add(token);
+        }
+
+        @Override
+        public void onRetryAuthentication() {
+            mRetries++;
+        }
+    }
+
+    private static final class RecordingController
+            extends OperatorGoogleAuthenticationController<RecordingListener> {
+
+        private final List<Intent> mIntents = new ArrayList<Intent>();
+
+        private RecordingController(final RecordingListener listener) {
+            super(listener, 0);
+        }
+
+        @Override
+        protected void startActivityForResult(final RecordingListener androidComponent,
+                                              final Intent intent, final int requestCode) {
+            assertEquals(1, requestCode);
+            mIntents.add(intent);
+        }
+
+        @Override
+        protected Activity getActivity(final RecordingListener androidComponent) {
+            return null;
+        }
+    }
+}
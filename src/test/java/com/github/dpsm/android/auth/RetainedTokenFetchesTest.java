@@ -0,0 +1,84 @@
+package com.github.dpsm.android.auth;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class RetainedTokenFetchesTest extends TestCase {
+
+    private static final String KEY = "com.google\noauth2:https://www.googleapis.com/auth/cloudprint";
+
+    public static final String TOKEN = "token_token";
+
+    @Test
+    public void givenFetchInFlightWhenSubscriberLeavesThenNextSubscriberReattaches() {
+        final RetainedTokenFetches fetches = new RetainedTokenFetches();
+        final PublishSubject<String> subject = PublishSubject.create();
+        final CountingOnSubscribe source = new CountingOnSubscribe(subject);
+        final Observable<String> observable = fetches.retaining(KEY, Observable.create(source));
+
+        final Subscription destroyed = observable.subscribe(new TestSubscriber<String>());
+        destroyed.unsubscribe();
+
+        final TestSubscriber<String> recreated = new TestSubscriber<String>();
+        observable.subscribe(recreated);
+        subject.onNext(TOKEN);
+        subject.onCompleted();
+
+        assertEquals(1, source.mSubscriptions.get());
+        assertEquals(1, recreated.getOnNextEvents().size());
+        assertEquals(TOKEN, recreated.getOnNextEvents().get(0));
+        assertFalse(fetches.isRetained(KEY));
+    }
+
+    @Test
+    public void givenFetchFailedWhileDetachedThenErrorRetainedUntilReleased() {
+        final RetainedTokenFetches fetches = new RetainedTokenFetches();
+        final PublishSubject<String> subject = PublishSubject.create();
+        final CountingOnSubscribe source = new CountingOnSubscribe(subject);
+        final Observable<String> observable = fetches.retaining(KEY, Observable.create(source));
+
+        observable.subscribe(new TestSubscriber<String>()).unsubscribe();
+        final Throwable throwable = new IllegalStateException();
+        subject.onError(throwable);
+
+        final TestSubscriber<String> recreated = new TestSubscriber<String>();
+        observable.subscribe(recreated);
+        assertEquals(1, source.mSubscriptions.get());
+        assertSame(throwable, recreated.getOnErrorEvents().get(0));
+
+        assertTrue(fetches.release(KEY));
+        observable.subscribe(new TestSubscriber<String>());
+        assertEquals(2, source.mSubscriptions.get());
+    }
+
+    private static final class CountingOnSubscribe implements Observable.OnSubscribe<String> {
+
+        private final AtomicInteger mSubscriptions = new AtomicInteger();
+
+        private final Observable<String> mSource;
+
+        private CountingOnSubscribe(final Observable<String> source) {
+            mSource = source;
+        }
+
+        @Override
+        public void call(final Subscriber<? super String> subscriber) {
+            mSubscriptions.incrementAndGet();
+            mSource.unsafeSubscribe(subscriber);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.github.dpsm.android.auth;
+
+import android.accounts.AccountManager;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.github.dpsm.android.account.AccountSelectionHelper;
+import com.github.dpsm.android.account.activity.AccountSelectionActivityHelper;
+import com.github.dpsm.android.auth.activity.OperatorGoogleAuthenticationActivityController;
+import com.google.android.gms.auth.UserRecoverableAuthException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Subscriber;
+
+/**
+ * Measures the time users wait for their first token: from the creation of an Activity, through
+ * the AccountSelectionHelper and the account picker result, to the token delivered to the
+ * Activity through authenticateUsing(..). Google Play services is faked with a fixed latency on
+ * a GoogleOAuthTokenExecutor and the account picker and consent screens answer right away, so
+ * that only the time spent by the library and Google Play services is measured.
+ * <br/>
+ * Each case appends one JSON line to the benchmark.output file so that results can be trended.
+ * Excluded from the default build, run with: mvn test -P benchmark [-Dbenchmark.iterations=..]
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class TimeToFirstTokenBenchmark extends TestCase {
+
+    private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
+
+    private static final String ACCOUNT_NAME = "someone@gmail.com";
+
+    public static final String TOKEN = "token_token";
+
+    private static final String ACTION_CONSENT = "com.github.dpsm.android.auth.CONSENT";
+
+    private static final int REQUEST_CODE_BASE = 100;
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * The state the Activity under measurement starts in.
+     */
+    private static enum Case {
+
+        /**
+         * No token is known, the first token takes a Google Play services call.
+         */
+        COLD(1),
+
+        /**
+         * A token was acquired earlier in the process and is delivered from the cache.
+         */
+        WARM(0),
+
+        /**
+         * The first call needs the user's consent, the call is made again once it is given.
+         */
+        RECOVERY(2);
+
+        private final int mExpectedCalls;
+
+        private Case(final int expectedCalls) {
+            mExpectedCalls = expectedCalls;
+        }
+    }
+
+    private static volatile Scenario sScenario;
+
+    @Test
+    public void givenNoKnownTokenWhenActivityCreatedThenTimeToFirstTokenRecorded()
+            throws Exception {
+        run(Case.COLD);
+    }
+
+    @Test
+    public void givenCachedTokenWhenActivityCreatedThenTimeToFirstTokenRecorded()
+            throws Exception {
+        run(Case.WARM);
+    }
+
+    @Test
+    public void givenConsentRequiredWhenActivityCreatedThenTimeToFirstTokenRecorded()
+            throws Exception {
+        run(Case.RECOVERY);
+    }
+
+    private static void run(final Case benchmarkCase) throws Exception {
+        final int iterations = Integer.getInteger("benchmark.iterations", 200);
+        final int warmup = Integer.getInteger("benchmark.warmup", 20);
+        final long latencyMillis = Long.getLong("benchmark.latencyMillis", 20);
+
+        final GoogleOAuthTokenExecutor executor = new GoogleOAuthTokenExecutor(2);
+        final GoogleOAuthTokenCache warmCache = new GoogleOAuthTokenCache();
+        warmCache.getEntry(ACCOUNT_NAME, GOOGLE_PRINT_SCOPE).setToken(TOKEN);
+
+        final long[] latencies = new long[iterations];
+        long first = 0;
+        try {
+            for (int i = 0; i < warmup + iterations; i++) {
+                final Scenario scenario = new Scenario(benchmarkCase, latencyMillis, executor,
+                        benchmarkCase == Case.WARM ? warmCache : new GoogleOAuthTokenCache());
+                final long nanos = measure(scenario);
+                if (i == 0) {
+                    first = nanos;
+                }
+                if (i >= warmup) {
+                    latencies[i - warmup] = nanos;
+                }
+            }
+        } finally {
+            sScenario = null;
+            executor.shutdown();
+        }
+
+        Arrays.sort(latencies);
+        final Report report = new Report(benchmarkCase, warmup, latencyMillis, first, latencies);
+        System.out.println(report);
+        report.appendTo(new File(System.getProperty("benchmark.output",
+                "target/benchmarks/time-to-first-token.json")));
+    }
+
+    private static long measure(final Scenario scenario) throws Exception {
+        sScenario = scenario;
+        final long start = System.nanoTime();
+        final ActivityController<BenchmarkActivity> controller =
+                Robolectric.buildActivity(BenchmarkActivity.class).create().start().resume();
+        final BenchmarkActivity activity = controller.get();
+
+        final Intent picked = new Intent().putExtra(AccountManager.KEY_ACCOUNT_NAME, ACCOUNT_NAME);
+        activity.finishLaunched(Activity.RESULT_OK, picked);
+        if (scenario.mCase == Case.RECOVERY) {
+            awaitLaunch(activity);
+            assertEquals(ACTION_CONSENT, activity.mLaunchedIntent.getAction());
+            activity.finishLaunched(Activity.RESULT_OK, null);
+        }
+        awaitToken(activity);
+        final long elapsed = activity.mTokenNanos - start;
+
+        controller.pause().stop().destroy();
+        assertNull(activity.mError);
+        assertEquals(TOKEN, activity.mToken);
+        assertEquals(scenario.mCase.mExpectedCalls, scenario.mCalls.get());
+        return elapsed;
+    }
+
+    private static void awaitLaunch(final BenchmarkActivity activity) {
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (activity.mLaunchedRequestCode < 0) {
+            assertTrue("No Activity launched", System.nanoTime() < deadline);
+            Robolectric.runUiThreadTasksIncludingDelayedTasks();
+            Thread.yield();
+        }
+    }
+
+    private static void awaitToken(final BenchmarkActivity activity) {
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (activity.mTokenNanos == 0 && activity.mError == null) {
+            assertTrue("No token delivered", System.nanoTime() < deadline);
+            Robolectric.runUiThreadTasksIncludingDelayedTasks();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * What the Activity of one iteration runs against.
+     */
+    private static final class Scenario {
+
+        private final Case mCase;
+
+        private final long mLatencyMillis;
+
+        private final GoogleOAuthTokenExecutor mExecutor;
+
+        private final GoogleOAuthTokenCache mCache;
+
+        private final AtomicInteger mCalls = new AtomicInteger();
+
+        private Scenario(final Case benchmarkCase, final long latencyMillis,
+                         final GoogleOAuthTokenExecutor executor,
+                         final GoogleOAuthTokenCache cache) {
+            mCase = benchmarkCase;
+            mLatencyMillis = latencyMillis;
+            mExecutor = executor;
+            mCache = cache;
+        }
+    }
+
+    private static final class Report {
+
+        private final Case mCase;
+
+        private final int mWarmup;
+
+        private final long mLatencyMillis;
+
+        private final long mFirstNanos;
+
+        private final long[] mSortedLatencies;
+
+        private Report(final Case benchmarkCase, final int warmup, final long latencyMillis,
+                       final long firstNanos, final long[] sortedLatencies) {
+            mCase = benchmarkCase;
+            mWarmup = warmup;
+            mLatencyMillis = latencyMillis;
+            mFirstNanos = firstNanos;
+            mSortedLatencies = sortedLatencies;
+        }
+
+        private long percentileMicros(final double percentile) {
+            final int index = (int) Math.min(mSortedLatencies.length - 1,
+                    Math.ceil(percentile * mSortedLatencies.length) - 1);
+            return TimeUnit.NANOSECONDS.toMicros(mSortedLatencies[Math.max(0, index)]);
+        }
+
+        private long meanMicros() {
+            long total = 0;
+            for (final long latency : mSortedLatencies) {
+                total += latency;
+            }
+            return TimeUnit.NANOSECONDS.toMicros(total / Math.max(1, mSortedLatencies.length));
+        }
+
+        /**
+         * @return the time the fake Google Play services calls take in each iteration.
+         */
+        private long fakeMicros() {
+            return TimeUnit.MILLISECONDS.toMicros(mLatencyMillis) * mCase.mExpectedCalls;
+        }
+
+        private void appendTo(final File file) throws IOException {
+            final File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can not create " + directory + ".");
+            }
+
+            final Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(toJson());
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        }
+
+        private String toJson() {
+            return "{\"benchmark\":\"time-to-first-token\""
+                    + ",\"case\":\"" + mCase.name().toLowerCase() + "\""
+                    + ",\"timestamp\":" + System.currentTimeMillis()
+                    + ",\"iterations\":" + mSortedLatencies.length
+                    + ",\"warmup\":" + mWarmup
+                    + ",\"latencyMillis\":" + mLatencyMillis
+                    + ",\"firstUs\":" + TimeUnit.NANOSECONDS.toMicros(mFirstNanos)
+                    + ",\"minUs\":" + percentileMicros(0)
+                    + ",\"p50Us\":" + percentileMicros(0.50)
+                    + ",\"p90Us\":" + percentileMicros(0.90)
+                    + ",\"p99Us\":" + percentileMicros(0.99)
+                    + ",\"maxUs\":" + percentileMicros(1)
+                    + ",\"meanUs\":" + meanMicros()
+                    + ",\"overheadP50Us\":" + (percentileMicros(0.50) - fakeMicros())
+                    + "}";
+        }
+
+        @Override
+        public String toString() {
+            return "Time to first token: case=" + mCase.name().toLowerCase()
+                    + " iterations=" + mSortedLatencies.length
+                    + " latencyMs=" + mLatencyMillis
+                    + " firstUs=" + TimeUnit.NANOSECONDS.toMicros(mFirstNanos)
+                    + " p50Us=" + percentileMicros(0.50)
+                    + " p90Us=" + percentileMicros(0.90)
+                    + " p99Us=" + percentileMicros(0.99)
+                    + " overheadP50Us=" + (percentileMicros(0.50) - fakeMicros());
+        }
+    }
+
+    /**
+     * Google Play services answering after the scenario's latency, asking for consent on the
+     * first call of the recovery case.
+     */
+    private static final class FakeTokenOnSubscribe extends GoogleOAuthTokenOnSubscribe {
+
+        private final Scenario mScenario;
+
+        private FakeTokenOnSubscribe(final Context context, final String accountName,
+                                     final Scenario scenario) {
+            super(context, accountName, GOOGLE_PRINT_SCOPE, scenario.mCache);
+            mScenario = scenario;
+            setExecutor(scenario.mExecutor);
+        }
+
+        @Override
+        public String getToken() throws UserRecoverableAuthException {
+            final int call = mScenario.mCalls.incrementAndGet();
+            try {
+                Thread.sleep(mScenario.mLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (mScenario.mCase == Case.RECOVERY && call == 1) {
+                throw new UserRecoverableAuthException("Consent required.",
+                        new Intent(ACTION_CONSENT));
+            }
+            return TOKEN;
+        }
+    }
+
+    /**
+     * An Activity wired the way the README shows. Activities it launches are not shown, the
+     * benchmark plays their part through finishLaunched(..).
+     */
+    public static class BenchmarkActivity extends Activity
+            implements AccountSelectionHelper.AccountSelectionListener,
+            OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
+
+        private AccountSelectionActivityHelper mAccountSelection;
+
+        private OperatorGoogleAuthenticationActivityController mAuthentication;
+
+        private GoogleOauthTokenObservable mTokens;
+
+        private volatile Intent mLaunchedIntent;
+
+        private volatile int mLaunchedRequestCode = -1;
+
+        private volatile String mToken;
+
+        private volatile long mTokenNanos;
+
+        private volatile Throwable mError;
+
+        @Override
+        protected void onCreate(final Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            mAccountSelection = new AccountSelectionActivityHelper(this, REQUEST_CODE_BASE);
+            mAuthentication = new OperatorGoogleAuthenticationActivityController(this,
+                    REQUEST_CODE_BASE + 100);
+            mAccountSelection.selectUserAccount(new String[]{"com.google"});
+        }
+
+        @Override
+        public void startActivityForResult(final Intent intent, final int requestCode) {
+            mLaunchedIntent = intent;
+            mLaunchedRequestCode = requestCode;
+        }
+
+        private void finishLaunched(final int resultCode, final Intent data) {
+            final int requestCode = mLaunchedRequestCode;
+            assertTrue("No Activity launched", requestCode >= 0);
+            mLaunchedIntent = null;
+            mLaunchedRequestCode = -1;
+            onActivityResult(requestCode, resultCode, data);
+        }
+
+        @Override
+        protected void onActivityResult(final int requestCode, final int resultCode,
+                                        final Intent data) {
+            if (mAccountSelection.handleActivityResult(requestCode, resultCode, data)
+                    || mAuthentication.handleActivityResult(requestCode, resultCode, data)) {
+                return;
+            }
+            super.onActivityResult(requestCode, resultCode, data);
+        }
+
+        @Override
+        public void onAccountSelected(final String accountName) {
+            mTokens = new GoogleOauthTokenObservable(
+                    new FakeTokenOnSubscribe(this, accountName, sScenario));
+            requestToken();
+        }
+
+        @Override
+        public void onAccountSelectionCanceled() {
+            mError = new IllegalStateException("Account selection canceled.");
+        }
+
+        @Override
+        public void onAuthenticationError(final Throwable throwable) {
+            mError = throwable;
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(final String token) {
+            mTokenNanos = System.nanoTime();
+            mToken = token;
+        }
+
+        @Override
+        public void onRetryAuthentication() {
+            requestToken();
+        }
+
+        private void requestToken() {
+            mTokens.authenticateUsing(mAuthentication).unsafeSubscribe(new IgnoringSubscriber());
+        }
+    }
+
+    /**
+     * The Activity receives everything through the listener callbacks.
+     */
+    private static final class IgnoringSubscriber extends Subscriber<String> {
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+        }
+
+        @Override
+        public void onNext(final String token) {
+        }
+    }
+}
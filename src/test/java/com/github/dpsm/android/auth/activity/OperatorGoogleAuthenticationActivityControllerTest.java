@@ -2,9 +2,13 @@ package com.github.dpsm.android.auth.activity;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.os.Bundle;
 
+import com.github.dpsm.android.auth.GoogleOAuthTokenCache;
 import com.github.dpsm.android.auth.GoogleOAuthTokenOnSubscribe;
+import com.github.dpsm.android.auth.GoogleOauthTokenObservable;
 import com.github.dpsm.android.auth.OperatorGoogleAuthenticationController;
+import com.github.dpsm.android.auth.RetainedTokenFetches;
 import com.google.android.gms.auth.GoogleAuthException;
 import com.google.android.gms.auth.UserRecoverableAuthException;
 
@@ -14,6 +18,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
@@ -36,6 +41,8 @@ public class OperatorGoogleAuthenticationActivityControllerTest extends TestCase
 
     private static final String GOOGLE_PRINT_SCOPE = "oauth2:https://www.googleapis.com/auth/cloudprint";
 
+    private static final String GOOGLE_DRIVE_SCOPE = "oauth2:https://www.googleapis.com/auth/drive";
+
     @Test(expected = IllegalArgumentException.class)
     public void givenNullActivityWhenInstantiatedThenThrows() {
         new OperatorGoogleAuthenticationActivityController(null, 0);
@@ -130,6 +137,131 @@ public class OperatorGoogleAuthenticationActivityControllerTest extends TestCase
         verify(activity).onRetryAuthentication();
     }
 
+    @Test
+    public void givenRecoveryPendingWhenStateSavedAndRestoredThenPendingRequestResumed() throws Exception {
+        final GoogleAuthenticationActivity activity = mock(GoogleAuthenticationActivity.class);
+        final GoogleOAuthTokenOnSubscribe onSubscribe = spy(new GoogleOAuthTokenOnSubscribe(activity, "com.google", GOOGLE_PRINT_SCOPE));
+
+        final Intent intent = new Intent();
+        doThrow(new UserRecoverableAuthException("", intent)).when(onSubscribe).getToken();
+
+        final OperatorGoogleAuthenticationActivityController controller = new UnretainedController(activity);
+        new GoogleOauthTokenObservable(onSubscribe).authenticateUsing(controller)
+                .subscribe(mock(StringObserver.class));
+        verify(activity).startActivityForResult(intent, 1);
+
+        final Bundle state = new Bundle();
+        controller.saveInstanceState(state);
+
+        final GoogleAuthenticationActivity recreated = mock(GoogleAuthenticationActivity.class);
+        final OperatorGoogleAuthenticationActivityController restored = new UnretainedController(recreated);
+        restored.restoreInstanceState(state);
+        restored.handleActivityResult(1, Activity.RESULT_OK, null);
+
+        verify(recreated).onRetryAuthentication();
+        final GoogleOauthTokenObservable pending = restored.getPendingRequest(Robolectric.application);
+        assertNotNull(pending);
+        assertEquals("com.google", pending.getAccountName());
+        assertEquals(GOOGLE_PRINT_SCOPE, pending.getScope());
+    }
+
+    @Test
+    public void givenNoRecoveryPendingWhenStateRestoredThenNoPendingRequest() {
+        final OperatorGoogleAuthenticationActivityController controller =
+                new UnretainedController(mock(GoogleAuthenticationActivity.class));
+        final Bundle state = new Bundle();
+        controller.saveInstanceState(state);
+
+        final OperatorGoogleAuthenticationActivityController restored =
+                new UnretainedController(mock(GoogleAuthenticationActivity.class));
+        restored.restoreInstanceState(state);
+
+        assertNull(restored.getPendingRequest(Robolectric.application));
+    }
+
+    @Test
+    public void givenRecoveryPendingWhenOtherSourceSucceedsThenPendingRequestKept() throws Exception {
+        final GoogleAuthenticationActivity activity = mock(GoogleAuthenticationActivity.class);
+        final GoogleOAuthTokenOnSubscribe print = spy(new GoogleOAuthTokenOnSubscribe(activity,
+                "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        doThrow(new UserRecoverableAuthException("", new Intent())).when(print).getToken();
+        final GoogleOAuthTokenOnSubscribe drive = spy(new GoogleOAuthTokenOnSubscribe(activity,
+                "com.google", GOOGLE_DRIVE_SCOPE, new GoogleOAuthTokenCache()));
+        doReturn("token").when(drive).getToken();
+
+        final OperatorGoogleAuthenticationActivityController controller =
+                new UnretainedController(activity);
+        final Observable<String> printObservable =
+                new GoogleOauthTokenObservable(print).authenticateUsing(controller);
+        printObservable.subscribe(mock(StringObserver.class));
+        new GoogleOauthTokenObservable(drive).authenticateUsing(controller)
+                .subscribe(mock(StringObserver.class));
+
+        final GoogleOauthTokenObservable pending =
+                controller.getPendingRequest(Robolectric.application);
+        assertNotNull(pending);
+        assertEquals(GOOGLE_PRINT_SCOPE, pending.getScope());
+
+        doReturn("token").when(print).getToken();
+        printObservable.subscribe(mock(StringObserver.class));
+
+        assertNull(controller.getPendingRequest(Robolectric.application));
+    }
+
+    @Test
+    public void givenOtherSourceAuthenticatedWhenFetchFailsThenOwnRetainedFetchReleased() throws Exception {
+        final GoogleAuthenticationActivity activity = mock(GoogleAuthenticationActivity.class);
+        final GoogleOAuthTokenOnSubscribe failing = spy(new GoogleOAuthTokenOnSubscribe(activity,
+                "com.google", GOOGLE_PRINT_SCOPE, new GoogleOAuthTokenCache()));
+        final Throwable throwable = new IOException();
+        doThrow(throwable).when(failing).getToken();
+        final GoogleOAuthTokenOnSubscribe other = new GoogleOAuthTokenOnSubscribe(activity,
+                "com.google", GOOGLE_DRIVE_SCOPE, new GoogleOAuthTokenCache());
+
+        final RetainedTokenFetches retained = new RetainedTokenFetches();
+        final OperatorGoogleAuthenticationActivityController controller =
+                new RetainingController(activity, retained);
+        final Observable<String> observable =
+                new GoogleOauthTokenObservable(failing).authenticateUsing(controller);
+        new GoogleOauthTokenObservable(other).authenticateUsing(controller);
+        retained.retaining("com.google\n" + GOOGLE_DRIVE_SCOPE, Observable.<String>never())
+                .subscribe();
+
+        final Observer<String> observer = mock(StringObserver.class);
+        observable.subscribe(observer);
+
+        verify(observer).onError(throwable);
+        assertFalse(retained.isRetained("com.google\n" + GOOGLE_PRINT_SCOPE));
+        assertTrue(retained.isRetained("com.google\n" + GOOGLE_DRIVE_SCOPE));
+    }
+
+    private static final class RetainingController extends OperatorGoogleAuthenticationActivityController {
+
+        private final RetainedTokenFetches mRetained;
+
+        private RetainingController(final Activity activity, final RetainedTokenFetches retained) {
+            super(activity, 0);
+            mRetained = retained;
+        }
+
+        @Override
+        protected RetainedTokenFetches getRetainedFetches(final Activity androidComponent) {
+            return mRetained;
+        }
+    }
+
+    private static final class UnretainedController extends OperatorGoogleAuthenticationActivityController {
+
+        private UnretainedController(final Activity activity) {
+            super(activity, 0);
+        }
+
+        @Override
+        protected RetainedTokenFetches getRetainedFetches(final Activity androidComponent) {
+            return null;
+        }
+    }
+
     private static abstract class GoogleAuthenticationActivity extends Activity
             implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
 
@@ -6,6 +6,7 @@ import android.content.Intent;
 
 import com.github.dpsm.android.auth.GoogleOAuthTokenOnSubscribe;
 import com.github.dpsm.android.auth.OperatorGoogleAuthenticationController;
+import com.github.dpsm.android.auth.RetainedTokenFetches;
 import com.google.android.gms.auth.GoogleAuthException;
 import com.google.android.gms.auth.UserRecoverableAuthException;
 
@@ -15,6 +16,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
@@ -144,6 +146,25 @@ public class OperatorGoogleAuthenticationFragmentControllerTest extends TestCase
         verify(fragment).onRetryAuthentication();
     }
 
+    @Test
+    public void givenRetainedFragmentNotAttachedYetWhenFetchesRequestedAgainThenSameReturned() {
+        final Activity activity = Robolectric.buildActivity(Activity.class).create().get();
+        Robolectric.getUiThreadScheduler().pause();
+        final RetainedTokenFetches fetches;
+        try {
+            fetches = RetainedTokenFetchesFragment.get(activity);
+            assertSame(fetches, RetainedTokenFetchesFragment.get(activity));
+            assertNull(activity.getFragmentManager().findFragmentByTag(
+                    RetainedTokenFetchesFragment.class.getName()));
+        } finally {
+            Robolectric.getUiThreadScheduler().unPause();
+        }
+
+        assertNotNull(activity.getFragmentManager().findFragmentByTag(
+                RetainedTokenFetchesFragment.class.getName()));
+        assertSame(fetches, RetainedTokenFetchesFragment.get(activity));
+    }
+
     private static abstract class GoogleAuthenticationFragment extends Fragment
             implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
     }
@@ -7,6 +7,7 @@ import android.support.v4.app.FragmentActivity;
 
 import com.github.dpsm.android.auth.GoogleOAuthTokenOnSubscribe;
 import com.github.dpsm.android.auth.OperatorGoogleAuthenticationController;
+import com.github.dpsm.android.auth.RetainedTokenFetches;
 import com.google.android.gms.auth.GoogleAuthException;
 import com.google.android.gms.auth.UserRecoverableAuthException;
 
@@ -16,6 +17,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
@@ -145,6 +147,25 @@ public class OperatorGoogleAuthenticationSupportFragmentControllerTest extends T
         verify(fragment).onRetryAuthentication();
     }
 
+    @Test
+    public void givenRetainedFragmentNotAttachedYetWhenFetchesRequestedAgainThenSameReturned() {
+        final FragmentActivity activity = Robolectric.buildActivity(FragmentActivity.class).create().get();
+        Robolectric.getUiThreadScheduler().pause();
+        final RetainedTokenFetches fetches;
+        try {
+            fetches = RetainedTokenFetchesSupportFragment.get(activity);
+            assertSame(fetches, RetainedTokenFetchesSupportFragment.get(activity));
+            assertNull(activity.getSupportFragmentManager().findFragmentByTag(
+                    RetainedTokenFetchesSupportFragment.class.getName()));
+        } finally {
+            Robolectric.getUiThreadScheduler().unPause();
+        }
+
+        assertNotNull(activity.getSupportFragmentManager().findFragmentByTag(
+                RetainedTokenFetchesSupportFragment.class.getName()));
+        assertSame(fetches, RetainedTokenFetchesSupportFragment.get(activity));
+    }
+
     private static abstract class GoogleAuthenticationFragment extends Fragment
             implements OperatorGoogleAuthenticationController.GoogleAuthenticationListener {
 
@@ -0,0 +1,92 @@
+package com.github.dpsm.android.diagnostics;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class AuthFlightRecorderTest extends TestCase {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenCapacityNotPowerOfTwoWhenCreatedThenExceptionThrown() {
+        new AuthFlightRecorder(3);
+    }
+
+    @Test
+    public void givenRecordedEventsWhenDumpedThenEventsListedOldestFirst() {
+        final AuthFlightRecorder recorder = new AuthFlightRecorder(4);
+        recorder.record(AuthFlightRecorder.Event.SUBSCRIBE, 0, "scope");
+        recorder.record(AuthFlightRecorder.Event.ERROR, 0, IOException.class);
+
+        final String[] lines = recorder.dump().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("SUBSCRIBE 0 scope"));
+        assertTrue(lines[1], lines[1].endsWith("ERROR 0 java.io.IOException"));
+    }
+
+    @Test
+    public void givenMoreEventsThanCapacityWhenDumpedThenNewestEventsKept() {
+        final AuthFlightRecorder recorder = new AuthFlightRecorder(4);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(AuthFlightRecorder.Event.FETCH_END, i, null);
+        }
+
+        final String[] lines = recorder.dump().split("\n");
+        assertEquals(10, recorder.getRecordedCount());
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("FETCH_END 6"));
+        assertTrue(lines[3], lines[3].endsWith("FETCH_END 9"));
+    }
+
+    @Test
+    public void givenDisabledRecorderWhenRecordedThenNothingKept() {
+        final AuthFlightRecorder recorder = new AuthFlightRecorder(4);
+        recorder.setEnabled(false);
+        recorder.record(AuthFlightRecorder.Event.SUBSCRIBE, 0, null);
+
+        assertEquals(0, recorder.getRecordedCount());
+        assertEquals("", recorder.dump());
+    }
+
+    @Test
+    public void givenConcurrentWritersWhenDumpedThenEveryKeptEventComplete() throws Exception {
+        final AuthFlightRecorder recorder = new AuthFlightRecorder(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 1000; j++) {
+                        recorder.record(AuthFlightRecorder.Event.FETCH_START, 1, "scope");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final String[] lines = recorder.dump().split("\n");
+        assertEquals(4000, recorder.getRecordedCount());
+        // Slots still held by a lapped writer are skipped.
+        assertTrue(lines.length > 0 && lines.length <= 64);
+        for (final String line : lines) {
+            assertTrue(line, line.endsWith("FETCH_START 1 scope"));
+        }
+    }
+}
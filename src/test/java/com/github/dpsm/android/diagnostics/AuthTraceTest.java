@@ -0,0 +1,28 @@
+package com.github.dpsm.android.diagnostics;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "src/main/AndroidManifest.xml", emulateSdk = 18)
+public class AuthTraceTest extends TestCase {
+
+    @Test
+    public void givenTracingOffWhenAsyncSectionBegunThenNoCookieReturned() {
+        assertFalse(AuthTrace.isEnabled());
+        assertEquals(0, AuthTrace.beginAsyncSection("test"));
+        AuthTrace.endAsyncSection("test", 0);
+    }
+
+    @Test
+    public void givenTracingOffWhenSectionsNestedThenNothingThrown() {
+        AuthTrace.beginSection("outer");
+        AuthTrace.beginSection("inner");
+        AuthTrace.endSection();
+        AuthTrace.endSection();
+    }
+}